@@ -0,0 +1,392 @@
+/*import libraries*/
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/* Non-interactive runner for many data sets and threshold grids, driven by a manifest:
+ *
+ *     # lines starting with # are comments
+ *     dataset /data/cancer.csv spearman    (method optional, spearman by default)
+ *     dataset /data/normal.csv pearson
+ *     tau     0.5 0.6 0.7
+ *     pval    0.05 0.01
+ *     output  /results                     (default: current directory)
+ *     matrix  true                         (also write correlation and p-value matrices)
+ *
+ * Every data set goes through a pipeline of stages, each on its own thread and connected
+ * by small bounded queues, so that one data set is loaded while another is correlated:
+ *     load       parse the .csv file
+ *     rank       prepare the vectors of the correlation measure
+ *     correlate  one search at the loosest thresholds (smallest tau, largest pval)
+ *     export     one edge list per (tau, pval) of the grid, filtered from that search
+ * Every pair is evaluated by the search whatever the thresholds, and the loose edges are
+ * filtered on the same double correlations and p-values the search decided on, so the
+ * edges of a stricter (tau, pval) are exactly those of a search at that (tau, pval).
+ * A table of stage timings is printed at the end.
+ *
+ * Usage: java BatchRunner manifest.txt */
+public class BatchRunner {
+    public static final int QUEUE_CAPACITY = 2;
+    private static final String[] STAGES = {"load", "rank", "correlate", "export"};
+
+    /*instance variables*/
+    private final Manifest manifest;
+    private final ArrayList<Item> items = new ArrayList<Item>();
+
+    /*constructor*/
+    public BatchRunner(Manifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /* Runs every data set through the pipeline; returns the number of failed data sets */
+    public int run() throws InterruptedException {
+        List<BlockingQueue<Item>> queues = new ArrayList<BlockingQueue<Item>>();
+        for (int s = 0; s <= STAGES.length; s++) {
+            queues.add(new ArrayBlockingQueue<Item>(QUEUE_CAPACITY));
+        }
+        Thread[] threads = new Thread[STAGES.length];
+        for (int s = 0; s < STAGES.length; s++) {
+            threads[s] = new Thread(new Stage(s, queues.get(s), queues.get(s + 1)), "batch-" + STAGES[s]);
+            threads[s].start();
+        }
+        long start = System.nanoTime();
+        //a sink drains the last queue so that the export stage never blocks
+        Thread sink = new Thread(new Stage(-1, queues.get(STAGES.length), null), "batch-sink");
+        sink.start();
+        for (Manifest.Dataset dataset : manifest.datasets) {
+            Item item = new Item(dataset);
+            items.add(item);
+            queues.get(0).put(item);
+        }
+        queues.get(0).put(Item.END);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        sink.join();
+        long wall = System.nanoTime() - start;
+
+        printSummary(wall);
+        int failed = 0;
+        for (Item item : items) {
+            if (item.error != null) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /*work of stage s on one data set*/
+    private void process(int s, Item item) throws Exception {
+        Manifest.Dataset dataset = item.dataset;
+        switch (s) {
+            case 0:
+                item.matrix = ExpressionMatrix.load(dataset.file);
+                item.names = item.matrix.geneNames();
+                break;
+            case 1:
+                item.kernel = new CorrelationKernel(item.matrix, dataset.measure);
+                item.matrix = null;
+                break;
+            case 2:
+                item.engine = new CorrelationEngine(item.kernel, manifest.maxPval(), manifest.minTau());
+                item.engine.retainExactValues();
+                if (manifest.isMatrix) {
+                    item.engine.retainMatrix();
+                }
+                item.engine.run(new CorrelationEngine.Observer() {
+                    public void onEdges(int[] first, int[] second, float[] values, int from, int to) {
+                    }
+                    public void onPriorityCompleted(int gene) {
+                    }
+                });
+                break;
+            case 3:
+                export(item);
+                item.kernel = null;
+                item.engine = null;
+                break;
+        }
+    }
+
+    /*one edge list per grid point, and the matrices if requested*/
+    private void export(Item item) throws IOException {
+        CorrelationEngine engine = item.engine;
+        CorrelationKernel kernel = engine.kernel();
+        String[] names = item.names;
+        int E = engine.E();
+        int[] first = engine.first();
+        int[] second = engine.second();
+        float[] values = engine.values();
+        double[] r = engine.exactValues();
+        double[] p = new double[E];
+        for (int i = 0; i < E; i++) {
+            p[i] = kernel.pValue(r[i], first[i], second[i]);
+        }
+        String base = item.baseName();
+        for (double tau : manifest.taus) {
+            for (double pval : manifest.pvals) {
+                File file = new File(manifest.output, String.format("%s_tau%s_p%s.csv", base, tau, pval));
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+                int kept = 0;
+                for (int i = 0; i < E; i++) {
+                    if (Math.abs(r[i]) >= tau && p[i] <= pval) {
+                        writer.println(names[first[i]] + "," + names[second[i]] + "," + values[i]);
+                        kept++;
+                    }
+                }
+                writer.close();
+                if (writer.checkError()) {
+                    throw new IOException("Could not write " + file);
+                }
+                item.report.append(String.format("%n    tau %-6s pval %-8s %8d edges  %s", tau, pval, kept, file.getName()));
+            }
+        }
+        if (manifest.isMatrix) {
+            for (boolean isP : new boolean[] {false, true}) {
+                File file = new File(manifest.output, base + (isP ? "_pval.txt" : "_corr.txt"));
+                if (!Correlate.writeMatrix(file.getPath(), names, engine.corrVec(), kernel, isP)) {
+                    throw new IOException("Could not write " + file);
+                }
+            }
+        }
+    }
+
+    /*per data set and per stage timings*/
+    private void printSummary(long wall) {
+        System.out.println();
+        StringBuilder header = new StringBuilder(String.format("%-30s", "dataset"));
+        for (String stage : STAGES) {
+            header.append(String.format("%12s", stage));
+        }
+        System.out.println(header.append("  (seconds)"));
+        double[] totals = new double[STAGES.length];
+        for (Item item : items) {
+            StringBuilder line = new StringBuilder(String.format("%-30s", item.baseName()));
+            for (int s = 0; s < STAGES.length; s++) {
+                double seconds = item.nanos[s] / 1e9;
+                totals[s] += seconds;
+                line.append(String.format("%12.3f", seconds));
+            }
+            if (item.error != null) {
+                line.append("  failed in ").append(item.failedStage).append(": ").append(item.error);
+            }
+            System.out.println(line);
+            if (item.report.length() > 0) {
+                System.out.println(item.report.substring(System.lineSeparator().length()));
+            }
+        }
+        StringBuilder line = new StringBuilder(String.format("%-30s", "total"));
+        for (double total : totals) {
+            line.append(String.format("%12.3f", total));
+        }
+        System.out.println(line);
+        System.out.println(String.format("wall clock %.3f s; the stages overlap across data sets", wall / 1e9));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.out.println("Usage: java BatchRunner manifest.txt");
+            System.exit(2);
+        }
+        Manifest manifest;
+        try {
+            manifest = Manifest.read(new File(args[0]));
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        int failed = new BatchRunner(manifest).run();
+        System.exit(failed > 0 ? 1 : 0);
+    }
+
+    /**
+     * Nested class: Stage
+     * Takes data sets from in, processes them and passes them on to out. A failed data set
+     * is passed on untouched so that later stages skip it.
+     **/
+    private class Stage implements Runnable {
+        private final int s;
+        private final BlockingQueue<Item> in;
+        private final BlockingQueue<Item> out;
+
+        Stage(int s, BlockingQueue<Item> in, BlockingQueue<Item> out) {
+            this.s = s;
+            this.in = in;
+            this.out = out;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Item item = in.take();
+                    if (item != Item.END && s >= 0 && item.error == null) {
+                        long start = System.nanoTime();
+                        try {
+                            process(s, item);
+                        } catch (Exception e) {
+                            item.fail(STAGES[s], e);
+                        } catch (OutOfMemoryError e) {
+                            item.fail(STAGES[s], e);
+                        }
+                        item.nanos[s] = System.nanoTime() - start;
+                    }
+                    if (out != null) {
+                        out.put(item);
+                    }
+                    if (item == Item.END) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Nested class: Item
+     * A data set on its way through the pipeline
+     **/
+    private static class Item {
+        static final Item END = new Item(null);
+
+        final Manifest.Dataset dataset;
+        final long[] nanos = new long[STAGES.length];
+        final StringBuilder report = new StringBuilder();
+        ExpressionMatrix matrix;
+        String[] names;
+        CorrelationKernel kernel;
+        CorrelationEngine engine;
+        String failedStage;
+        String error;
+
+        Item(Manifest.Dataset dataset) {
+            this.dataset = dataset;
+        }
+
+        void fail(String stage, Throwable e) {
+            failedStage = stage;
+            error = e.toString();
+            matrix = null;
+            kernel = null;
+            engine = null;
+        }
+
+        String baseName() {
+            String name = dataset.file.getName();
+            int i = name.lastIndexOf('.');
+            if (i > 0) {
+                name = name.substring(0, i);
+            }
+            return name + "_" + dataset.measure;
+        }
+    }
+
+    /**
+     * Nested class: Manifest
+     * The data sets, threshold grids and export settings of a batch
+     **/
+    public static class Manifest {
+        final ArrayList<Dataset> datasets = new ArrayList<Dataset>();
+        final ArrayList<Double> taus = new ArrayList<Double>();
+        final ArrayList<Double> pvals = new ArrayList<Double>();
+        File output = new File(".");
+        boolean isMatrix;
+
+        /* Reads and checks a manifest file */
+        public static Manifest read(File file) throws IOException {
+            Manifest manifest = new Manifest();
+            BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] fields = line.split("\\s+", 2);
+                    String key = fields[0].toLowerCase();
+                    String value = (fields.length > 1) ? fields[1].trim() : "";
+                    try {
+                        manifest.set(key, value);
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(String.format("%s, line %d: %s", file, lineNumber, e.getMessage()));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (manifest.datasets.isEmpty() || manifest.taus.isEmpty() || manifest.pvals.isEmpty()) {
+                throw new IOException(file + ": needs at least one dataset, tau and pval");
+            }
+            if (!manifest.output.isDirectory() && !manifest.output.mkdirs()) {
+                throw new IOException("Cannot create output directory " + manifest.output);
+            }
+            return manifest;
+        }
+
+        private void set(String key, String value) {
+            if (key.equals("dataset")) {
+                //an optional method name ends the line; the path may contain spaces
+                CorrelationMeasure measure = CorrelationMeasure.SPEARMAN;
+                int space = value.lastIndexOf(' ');
+                if (space > 0) {
+                    try {
+                        measure = CorrelationMeasure.forName(value.substring(space + 1));
+                        value = value.substring(0, space).trim();
+                    } catch (IllegalArgumentException e) {
+                        //part of the path
+                    }
+                }
+                if (value.isEmpty()) {
+                    throw new IllegalArgumentException("dataset needs a file");
+                }
+                datasets.add(new Dataset(new File(value), measure));
+            } else if (key.equals("tau")) {
+                parseAll(value, taus);
+            } else if (key.equals("pval")) {
+                parseAll(value, pvals);
+            } else if (key.equals("output")) {
+                output = new File(value);
+            } else if (key.equals("matrix")) {
+                isMatrix = Boolean.parseBoolean(value);
+            } else {
+                throw new IllegalArgumentException("unknown key " + key);
+            }
+        }
+
+        private static void parseAll(String value, List<Double> list) {
+            for (String field : value.split("[,\\s]+")) {
+                if (!field.isEmpty()) {
+                    list.add(Double.parseDouble(field));
+                }
+            }
+        }
+
+        double minTau() {
+            return Collections.min(taus);
+        }
+
+        double maxPval() {
+            return Collections.max(pvals);
+        }
+
+        /**
+         * Nested class: Dataset
+         * One aggregated data set and the measure to correlate it with
+         **/
+        static class Dataset {
+            final File file;
+            final CorrelationMeasure measure;
+
+            Dataset(File file, CorrelationMeasure measure) {
+                this.file = file;
+                this.measure = measure;
+            }
+        }
+    }
+}
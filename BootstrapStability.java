@@ -0,0 +1,191 @@
+/*import libraries*/
+import java.util.*;
+
+/* Bootstrap stability of the edges of a run: how often an edge still passes pval and tau
+ * when the samples are resampled with replacement. Only the given edges are re-evaluated,
+ * never all pairs, and the replicates run concurrently on the Parallel pool.
+ *
+ * A replicate draws every sample a random number of times (S draws out of S samples) and
+ * correlates the edges as the weighted Pearson correlation of the prepared vectors, with
+ * the draw counts as weights. The vectors are prepared once, so for Spearman the ranks
+ * of the full data set are reused rather than recomputed per replicate (bicor reuses its
+ * weights the same way); for Pearson this is exactly the bootstrap correlation. A pair
+ * with missing values is correlated over its shared samples and tested with their count.
+ *
+ * Every replicate has its own random stream derived from the seed and the replicate
+ * number, so the stabilities do not depend on the number of threads. */
+public class BootstrapStability {
+    public static final int DEFAULT_REPLICATES = 100;
+
+    /*instance variables*/
+    private final CorrelationKernel kernel;
+    private final double pval;
+    private final double tau;
+    private final double threshold; //smallest |r| over all samples that passes pval and tau
+    private long seed = 1L;
+
+    /*constructors*/
+    public BootstrapStability(CorrelationKernel kernel, double pval, double tau) {
+        if (!kernel.measure().isDotProduct()) {
+            throw new IllegalArgumentException("Bootstrap stability needs a dot-product measure, not " + kernel.measure());
+        }
+        this.kernel = kernel;
+        this.pval = pval;
+        this.tau = tau;
+        threshold = Math.max(tau, criticalValue(kernel.measure(), kernel.samples(), pval));
+    }
+
+    /*smallest |r| whose p-value over n samples is at most pval (bisection; the p-value
+     * falls as |r| grows), so that complete pairs need no p-value*/
+    private static double criticalValue(CorrelationMeasure measure, int n, double pval) {
+        if (measure.pValue(1, n) > pval) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double lo = 0, hi = 1;
+        for (int k = 0; k < 60; k++) {
+            double mid = 0.5 * (lo + hi);
+            if (measure.pValue(mid, n) <= pval) {
+                hi = mid;
+            } else {
+                lo = mid;
+            }
+        }
+        return hi;
+    }
+
+    /* Sets the seed of the replicates' random streams */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /* Returns, for each edge of first and second (0-based gene ids), the fraction of the
+     * replicates in which it passes pval and tau */
+    public float[] stability(final int[] first, final int[] second, final int replicates) {
+        if (first.length != second.length) {
+            throw new IllegalArgumentException("first and second must have the same length");
+        }
+        if (replicates < 1) {
+            throw new IllegalArgumentException("At least one replicate is needed: " + replicates);
+        }
+        final int E = first.length;
+        final int N = kernel.size();
+        final int S = kernel.samples();
+
+        //the complete genes of the edges, whose weighted moments are shared by their edges
+        boolean[] isUsed = new boolean[N];
+        int used = 0;
+        for (int e = 0; e < E; e++) {
+            for (int gene : new int[] {first[e], second[e]}) {
+                if (!isUsed[gene] && kernel.isComplete(gene)) {
+                    isUsed[gene] = true;
+                    used++;
+                }
+            }
+        }
+        final int[] genes = new int[used];
+        for (int i = 0, k = 0; i < N; i++) {
+            if (isUsed[i]) {
+                genes[k++] = i;
+            }
+        }
+
+        final int[] passes = new int[E];
+        Parallel.forRange(0, replicates, 1, new Parallel.Range() {
+            public void run(int from, int to) {
+                int[] local = new int[E];
+                double[] weights = new double[S];
+                double[] means = new double[N];
+                double[] norms = new double[N];
+                double[][] weighted = new double[N][]; //the weighted vectors of complete genes
+                for (int gene : genes) {
+                    weighted[gene] = new double[S];
+                }
+                DotKernel dotKernel = kernel.dotKernel();
+                for (int b = from; b < to; b++) {
+                    draw(b, weights);
+                    for (int gene : genes) {
+                        double[] v = kernel.vector(gene);
+                        double[] w = weighted[gene];
+                        double sum = 0;
+                        for (int s = 0; s < S; s++) {
+                            w[s] = weights[s] * v[s];
+                            sum += w[s];
+                        }
+                        means[gene] = sum / S;
+                        norms[gene] = Math.sqrt(Math.max(0, dotKernel.dot(w, v, S) - sum * means[gene]));
+                    }
+                    for (int e = 0; e < E; e++) {
+                        if (passes(first[e], second[e], weights, weighted, means, norms, dotKernel)) {
+                            local[e]++;
+                        }
+                    }
+                }
+                synchronized (passes) {
+                    for (int e = 0; e < E; e++) {
+                        passes[e] += local[e];
+                    }
+                }
+            }
+        });
+
+        float[] stability = new float[E];
+        for (int e = 0; e < E; e++) {
+            stability[e] = (float) passes[e] / replicates;
+        }
+        return stability;
+    }
+
+    /*the draw counts of replicate b: S samples drawn with replacement*/
+    private void draw(int b, double[] weights) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + b);
+        Arrays.fill(weights, 0);
+        for (int s = 0; s < weights.length; s++) {
+            weights[random.nextInt(weights.length)]++;
+        }
+    }
+
+    /*determines if the weighted correlation of genes i and j passes pval and tau*/
+    private boolean passes(int i, int j, double[] weights, double[][] weighted, double[] means, double[] norms, DotKernel dotKernel) {
+        int S = weights.length;
+        if (kernel.isComplete(i) && kernel.isComplete(j)) {
+            double dot = dotKernel.dot(weighted[i], kernel.vector(j), S);
+            double norm = norms[i] * norms[j];
+            return norm > 0 && Math.abs(dot - S * means[i] * means[j]) >= threshold * norm;
+        } else {
+            //shared samples only: weighted moments of the pair in one pass
+            double[] x = kernel.vector(i);
+            double[] y = kernel.vector(j);
+            double w = 0, sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+            int n = 0;
+            for (int s = 0; s < S; s++) {
+                if (kernel.hasValue(i, s) && kernel.hasValue(j, s)) {
+                    n++;
+                    double ws = weights[s];
+                    w += ws;
+                    sx += ws * x[s];
+                    sy += ws * y[s];
+                    sxx += ws * x[s] * x[s];
+                    syy += ws * y[s] * y[s];
+                    sxy += ws * x[s] * y[s];
+                }
+            }
+            double norm = (w > 0) ? Math.sqrt(Math.max(0, sxx - sx * sx / w) * Math.max(0, syy - sy * sy / w)) : 0;
+            if (n < 3 || norm == 0) {
+                return false;
+            }
+            double r = Math.max(-1, Math.min(1, (sxy - sx * sy / w) / norm));
+            return Math.abs(r) >= tau && kernel.measure().pValue(r, n) <= pval;
+        }
+    }
+
+    /*access methods*/
+    public CorrelationKernel kernel() {
+        return kernel;
+    }
+    public double pval() {
+        return pval;
+    }
+    public double tau() {
+        return tau;
+    }
+}
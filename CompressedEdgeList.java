@@ -0,0 +1,244 @@
+/*import libraries*/
+import java.util.*;
+
+/* Edge list compressed for loose thresholds, where a network can have hundreds of millions
+ * of edges: 12 bytes per edge as three parallel arrays become about 3 to 4 bytes.
+ *
+ * Edges are sorted by source and then by target. Each edge is one varint, the gap to the
+ * previous target shifted left by one, with the low bit set when the source changes; the
+ * gap to the new source follows as a second varint and the target is then stored as it
+ * is. Values are r quantized to 16 bits (an error of at most 1.6e-5). Every BLOCK edges the
+ * state is reset and the byte offset and source are recorded, so that edge i is found by
+ * decoding at most BLOCK edges; sequential access decodes each block once.
+ *
+ * Ids are 0-based and the list is immutable. */
+public final class CompressedEdgeList {
+    public static final int BLOCK = 128;
+    private static final float SCALE = Short.MAX_VALUE;
+
+    /*instance variables*/
+    private final int E;
+    private final byte[] bytes;
+    private final int[] blockOffsets;
+    private final int[] blockSources;
+    private final short[] values;
+    private volatile Block lastBlock; //the block decoded last, for sequential access
+
+    private CompressedEdgeList(int E, byte[] bytes, int[] blockOffsets, int[] blockSources, short[] values) {
+        this.E = E;
+        this.bytes = bytes;
+        this.blockOffsets = blockOffsets;
+        this.blockSources = blockSources;
+        this.values = values;
+    }
+
+    /* Compresses edges [from, to) of the parallel arrays; ids are reduced by idOffset, so
+     * that the 1-based ids of Correlate.EdgeList are compressed with an idOffset of 1 */
+    public static CompressedEdgeList compress(int[] first, int[] second, float[] values, int from, int to, int idOffset) {
+        int E = to - from;
+        int V = 0;
+        for (int i = from; i < to; i++) {
+            V = Math.max(V, Math.max(first[i], second[i]) - idOffset + 1);
+        }
+
+        //bucket the edges by source (counting sort), then sort each bucket by target;
+        //the quantized value rides along in the low 16 bits of the sort key
+        int[] start = new int[V + 1];
+        for (int i = from; i < to; i++) {
+            start[first[i] - idOffset + 1]++;
+        }
+        for (int v = 0; v < V; v++) {
+            start[v + 1] += start[v];
+        }
+        int[] fill = Arrays.copyOf(start, V);
+        long[] keys = new long[E];
+        for (int i = from; i < to; i++) {
+            int source = first[i] - idOffset;
+            int target = second[i] - idOffset;
+            keys[fill[source]++] = ((long) target << 16) | (quantize(values[i]) & 0xffff);
+        }
+        for (int v = 0; v < V; v++) {
+            Arrays.sort(keys, start[v], start[v + 1]);
+        }
+
+        int blocks = (E + BLOCK - 1) / BLOCK;
+        int[] blockOffsets = new int[blocks];
+        int[] blockSources = new int[blocks];
+        short[] quantized = new short[E];
+        byte[] bytes = new byte[Math.max(16, E * 2)];
+        int length = 0;
+        int source = 0;
+        int target = 0;
+        int i = 0;
+        for (int v = 0; v < V; v++) {
+            for (int k = start[v]; k < start[v + 1]; k++, i++) {
+                int next = (int) (keys[k] >>> 16);
+                quantized[i] = (short) keys[k];
+                if (i % BLOCK == 0) {
+                    blockOffsets[i / BLOCK] = length;
+                    blockSources[i / BLOCK] = v;
+                    source = v;
+                    target = 0;
+                }
+                if (bytes.length - length < 10) {
+                    bytes = Arrays.copyOf(bytes, bytes.length + (bytes.length >> 1));
+                }
+                if (v == source) {
+                    length = writeVarint(bytes, length, (next - target) << 1);
+                } else {
+                    length = writeVarint(bytes, length, (next << 1) | 1);
+                    length = writeVarint(bytes, length, v - source);
+                    source = v;
+                }
+                target = next;
+            }
+        }
+        return new CompressedEdgeList(E, Arrays.copyOf(bytes, length), blockOffsets, blockSources, quantized);
+    }
+
+    /*access methods*/
+    public int size() {
+        return E;
+    }
+    public int source(int i) {
+        return block(i).sources[i % BLOCK];
+    }
+    public int target(int i) {
+        return block(i).targets[i % BLOCK];
+    }
+    public float value(int i) {
+        return values[i] / SCALE;
+    }
+
+    /* Decodes all edges into the parallel arrays, adding idOffset to the ids */
+    public void decode(int[] first, int[] second, float[] values, int idOffset) {
+        Cursor cursor = cursor();
+        for (int i = 0; cursor.next(); i++) {
+            first[i] = cursor.source() + idOffset;
+            second[i] = cursor.target() + idOffset;
+            values[i] = cursor.value();
+        }
+    }
+
+    /* Approximate size of the compressed edges in bytes */
+    public long memoryBytes() {
+        return bytes.length + 8L * blockOffsets.length + 2L * values.length;
+    }
+
+    /* A cursor before the first edge */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /*the decoded block of edge i*/
+    private Block block(int i) {
+        if (i < 0 || i >= E) {
+            throw new IndexOutOfBoundsException("Edge " + i + " of " + E);
+        }
+        Block block = lastBlock;
+        if (block == null || block.index != i / BLOCK) {
+            block = new Block(i / BLOCK);
+            lastBlock = block;
+        }
+        return block;
+    }
+
+    private static short quantize(float r) {
+        return (short) Math.round(Math.max(-1f, Math.min(1f, r)) * SCALE);
+    }
+
+    private static int writeVarint(byte[] bytes, int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            bytes[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Nested class: Cursor
+     * Decodes the edges in order, one at a time. A cursor belongs to one thread.
+     **/
+    public final class Cursor {
+        private int i = -1;
+        private int position;
+        private int source;
+        private int target;
+
+        private Cursor() {
+        }
+
+        /* Moves to the next edge; false after the last one */
+        public boolean next() {
+            if (i + 1 >= E) {
+                i = E;
+                return false;
+            }
+            i++;
+            if (i % BLOCK == 0) {
+                position = blockOffsets[i / BLOCK];
+                source = blockSources[i / BLOCK];
+                target = 0;
+            }
+            int code = readVarint();
+            if ((code & 1) == 0) {
+                target += code >>> 1;
+            } else {
+                target = code >>> 1;
+                source += readVarint();
+            }
+            return true;
+        }
+
+        /* Index of the current edge */
+        public int index() {
+            return i;
+        }
+        public int source() {
+            return source;
+        }
+        public int target() {
+            return target;
+        }
+        public float value() {
+            return values[i] / SCALE;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Nested class: Block
+     * The sources and targets of one block, decoded for random access.
+     **/
+    private final class Block {
+        final int index;
+        final int[] sources;
+        final int[] targets;
+
+        Block(int index) {
+            this.index = index;
+            int n = Math.min(BLOCK, E - index * BLOCK);
+            sources = new int[n];
+            targets = new int[n];
+            Cursor cursor = new Cursor();
+            cursor.i = index * BLOCK - 1;
+            for (int k = 0; k < n; k++) {
+                cursor.next();
+                sources[k] = cursor.source;
+                targets[k] = cursor.target;
+            }
+        }
+    }
+}
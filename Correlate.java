@@ -1,77 +1,64 @@
 /*import libraries*/
 import java.io.*;
 import java.util.*;
-import org.rosuda.JRI.Rengine;
-import org.rosuda.JRI.REXP;
-import org.rosuda.JRI.RBool;
+import java.util.concurrent.*;
 import javax.swing.*;
 
 /* Some of the logic has been taken from the GenEx Project */
 
-/* Static class to conduct correlational computations */
+/* Static class to conduct correlational computations. Sessions correlate in Java by
+ * default; the R backend (startWithR) starts R lazily through RBackend. */
 public class Correlate {
     private static final String SAFETY = "A";
     
-    private static Rengine re;
     private static boolean isInitialized;
     
     private static boolean isAggregated;
-    private static boolean isCorrelated;
+    private static volatile boolean isCorrelated;
     
     private static String aggDT;
     private static String corrEnv;
     
     private static String adjEnv;
     
-    private static EdgeList edgeList;
+    private static volatile EdgeList edgeList;
     private static String[] origGeneList;
+    private static GeneDictionary dictionary;
+    private static NetworkStats networkStats;
+    private static EdgePublisher publisher;
+    private static boolean isPublisherUsed; //a corrData run has taken the publisher
+    
+    //Java sessions: the correlation measure, its kernel and the running engine
+    private static CorrelationMeasure measure;
+    private static ExpressionMatrix matrix;
+    private static CorrelationKernel kernel;
+    private static CorrelationEngine engine;
+    private static float[] corrVec; //correlation triangle of a completed run, if kept
+    private static String fingerprint; //of the content start() loaded, for the result cache
+    private static boolean isFdr;
+    private static int permutations;
+    private static double candidateRecall;
+    private static boolean isPruning;
     
     private static File filePath;
     private static Listener listener;
-    private static String priorityGene;
+    private static volatile String[] priorityGenes = new String[0];
     private static double pVal;
     private static double tau;
     
-    private static Thread prevThread;
-    
-    /* -------------------------- Methods to interface with R engine -------------------------- */
-    /*start Rengine*/
-    private static Rengine startR() {
-        Rengine re = Rengine.getMainEngine();
-        //check if R Engine exists
-        if (re == null) {
-            // Create R Engine
-            String[] Rargs = {"--vanilla"};
-            re = new Rengine(Rargs, false, null);
-            
-            re.eval("library(data.table)");
-            re.eval("library(WGCNA)");
-            re.eval("library(rJava)");
-
-            re.eval("source('./Backend/R/queue.R')");
-            re.eval("source('./Backend/R/corrData.R')");
-            re.eval("dyn.load('./Backend/src/pvalAndTriFunctions.so')");
-            
-            re.eval("gc()");
-        }
-        
-        return re;
-    }
+    //computations run on the session runner and listener code on the dispatcher; one
+    //computation at a time, since a run keeps its engine, matrix and edge list in the
+    //session, so a second corrData is refused while one is in flight
+    private static final int MAX_RUNS = 1;
+    private static final Semaphore RUNS = new Semaphore(MAX_RUNS);
+    private static final ThreadPoolExecutor RUNNER = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            NotificationDispatcher.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            NotificationDispatcher.threadFactory("correlate-session"));
+    private static final NotificationDispatcher DISPATCHER = new NotificationDispatcher("correlate-listener", 1);
+    private static NotificationDispatcher.Channel notifications;
     
-    /*ends R session -- only include if you're done with entire Java session*/
-    private static void endR(Rengine re) {
-        if (re != null) {
-            re.end();
-        }
-    }
-    
-    /*check if R object is NOT null*/
-    private static boolean notNull(String object, Rengine re) {
-        if (re == null)
-            return false;
-        //if not null, re.eval(check).asBool() == FALSE; .isFALSE() == TRUE
-        return re.eval(String.format("is.null(%s)", object)).asBool().isFALSE();
-    }
+    //finished Java runs, shared by all sessions; null disables caching
+    private static volatile ResultCache resultCache = new ResultCache(ResultCache.DEFAULT_MEMORY_BYTES);
     
     /* ----------------------------------------------------------------------------------------- */
     private static String getExtension(File file) {
@@ -107,20 +94,25 @@ public class Correlate {
         }   
 
         String aggregate = String.format("%s <- loadAggDT(\'%s\')", aggDT, filePath.getAbsolutePath());
-        re.eval(aggregate);
+        RBackend.eval(aggregate);
 
-        isAggregated = notNull(aggDT, re);
+        isAggregated = RBackend.notNull(aggDT);
         return isAggregated;
     }
 
-    /* Initiates the interface using the aggregated data set, filePath. */
+    /* Initiates the interface using the aggregated data set, filePath, with Spearman
+     * correlations computed in Java, as the R backend does. */
     public static boolean start(File filePath) throws Exception {
+        return start(filePath, CorrelationMeasure.SPEARMAN);
+    }
+    
+    /* Initiates the interface using the aggregated data set, filePath, with the R
+     * backend. R is started on the first call, which takes several seconds. */
+    public static boolean startWithR(File filePath) throws Exception {
         if (isInitialized) {
             throw new Exception("Correlational computations are already running");
         }
-        re = startR();
-        if (re == null) {
-            end();
+        if (RBackend.engine() == null) {
             return false;
         }
 
@@ -128,13 +120,154 @@ public class Correlate {
         Correlate.filePath = filePath;
         
         aggDT = createFileName(filePath.getName()) + "_aggDT";
+        corrEnv = createFileName(filePath.getName()) + "_corrEnv";
         if (!loadAggDT()) {
             end();
             return false;
         }
+        origGeneList = RBackend.strings(String.format("as.character(%s$Gene)", aggDT));
+        if (origGeneList == null) {
+            end();
+            return false;
+        }
+        dictionary = new GeneDictionary(origGeneList);
+        publisher = new EdgePublisher(origGeneList);
         return true;
     }
 
+    /* Initiates a session that correlates the aggregated data set, filePath, in Java with
+     * the given correlation measure, or in R if measure is null. */
+    public static boolean start(File filePath, CorrelationMeasure measure) throws Exception {
+        if (isInitialized) {
+            throw new Exception("Correlational computations are already running");
+        }
+        if (measure == null) {
+            return startWithR(filePath);
+        }
+        String ext = getExtension(filePath);
+        // only handle .csv files
+        if (ext == null || !ext.equals(".csv")) {
+            return false;
+        }
+        
+        isInitialized = true;
+        Correlate.filePath = filePath;
+        Correlate.measure = measure;
+        try {
+            matrix = ExpressionMatrix.load(filePath);
+            fingerprint = matrix.fingerprint();
+            origGeneList = matrix.geneNames();
+            dictionary = new GeneDictionary(origGeneList);
+            kernel = new CorrelationKernel(matrix, measure);
+            publisher = new EdgePublisher(origGeneList);
+        } catch (IOException e) {
+            System.out.println(e);
+            end();
+            return false;
+        }
+        isAggregated = true;
+        return true;
+    }
+    
+    /* Returns the publisher of the edges of the running corrData run, or of the next one
+     * once the last run has finished, as batches with 0-based gene ids. Every run has its
+     * own publisher, so subscribe before each corrData to receive all of its edges; a
+     * subscriber that falls behind holds up the computation, or spills to disk with
+     * EdgePublisher.Overflow.SPILL. */
+    public static synchronized EdgePublisher getEdgePublisher() throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (isPublisherUsed && publisher.isClosed()) {
+            publisher = new EdgePublisher(origGeneList);
+            isPublisherUsed = false;
+        }
+        return publisher;
+    }
+    
+    /*the publisher of a new run: the session's publisher, unless an earlier run took it*/
+    private static synchronized EdgePublisher takePublisher() {
+        if (isPublisherUsed) {
+            publisher = new EdgePublisher(origGeneList);
+        }
+        isPublisherUsed = true;
+        return publisher;
+    }
+    
+    /* Returns the correlation measure of a Java session, or null if R is used */
+    public static CorrelationMeasure getMeasure() {
+        return measure;
+    }
+    
+    /* When enabled, the significance value given to corrData is the Benjamini-Hochberg
+     * false discovery rate over all pairs instead of a per-pair p-value cutoff.
+     * Only available in Java sessions. */
+    public static void setFdrControl(boolean enabled) throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (enabled && measure == null)
+            throw new Exception("FDR control requires a session started with a correlation measure");
+        if (enabled && candidateRecall > 0)
+            throw new Exception("FDR control needs every pair and cannot be combined with candidate prefiltering");
+        if (enabled && isPruning)
+            throw new Exception("FDR control needs every pair and cannot be combined with pivot pruning");
+        isFdr = enabled;
+    }
+    
+    /* When maxPermutations > 0, candidate edges (|r| >= tau) are tested with permutation
+     * p-values instead of the asymptotic ones; 0 restores the asymptotic p-values.
+     * Only available in Java sessions. */
+    public static void setPermutationTest(int maxPermutations) throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (maxPermutations > 0 && measure == null)
+            throw new Exception("Permutation p-values require a session started with a correlation measure");
+        permutations = Math.max(0, maxPermutations);
+    }
+    
+    /* When recall > 0, only the pairs that SimHash random projections find as candidates are
+     * correlated (see SimHashFilter): each edge is found with probability at least recall,
+     * and high-tau runs on many genes evaluate a small fraction of the pairs. 0 evaluates
+     * every pair. Only available in Java sessions with a dot-product measure (not Kendall);
+     * the correlation matrix cannot be written out of such a run. */
+    public static void setCandidateRecall(double recall) throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (recall > 0 && (measure == null || !measure.isDotProduct()))
+            throw new Exception("Candidate prefiltering requires a session started with a dot-product measure");
+        if (recall > 0 && isFdr)
+            throw new Exception("FDR control needs every pair and cannot be combined with candidate prefiltering");
+        if (recall >= 1)
+            throw new Exception("Recall must be below 1; use 0 to evaluate every pair");
+        candidateRecall = Math.max(0, recall);
+    }
+    
+    /* When enabled, pairs whose correlation the triangle inequality through pivot genes
+     * proves to be below tau are skipped (see PivotPruning). The edges are the same as
+     * without pruning. Only available in Java sessions with a dot-product measure (not
+     * Kendall); the correlation matrix cannot be written out of such a run. */
+    public static void setPivotPruning(boolean enabled) throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (enabled && (measure == null || !measure.isDotProduct()))
+            throw new Exception("Pivot pruning requires a session started with a dot-product measure");
+        if (enabled && isFdr)
+            throw new Exception("FDR control needs every pair and cannot be combined with pivot pruning");
+        isPruning = enabled;
+    }
+    
+    /* Sets the cache of finished runs used by Java sessions, or disables caching if null.
+     * A run whose data set content, measure and parameters are all cached returns its edges
+     * (and correlation matrix) without computing them; the listener is called as usual.
+     * By default results are only cached in memory, up to ResultCache.DEFAULT_MEMORY_BYTES;
+     * give the cache a directory to keep them across JVMs. */
+    public static void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+    
+    public static ResultCache getResultCache() {
+        return resultCache;
+    }
+    
     /* Determines if a session is running */
     public static boolean isInitialized() {
         return isInitialized;
@@ -148,7 +281,9 @@ public class Correlate {
     /* Ends the entire session */
     public static void end() {
         if (isInitialized) {
-            endR(re);
+            if (measure == null) {
+                RBackend.remove(aggDT, corrEnv);
+            }
             isInitialized = false;
             isAggregated = false;
             isCorrelated = false;
@@ -159,10 +294,24 @@ public class Correlate {
             corrEnv = null;
             edgeList = null;
             origGeneList = null;
+            dictionary = null;
+            networkStats = null;
+            publisher = null;
+            isPublisherUsed = false;
+            measure = null;
+            matrix = null;
+            kernel = null;
+            engine = null;
+            corrVec = null;
+            fingerprint = null;
+            isFdr = false;
+            permutations = 0;
+            candidateRecall = 0;
+            isPruning = false;
             filePath = null;
             listener = null;
-            priorityGene = null;
-            prevThread = null;
+            priorityGenes = new String[0];
+            notifications = null;
             pVal = -1;
             tau = -1;
         }
@@ -171,50 +320,236 @@ public class Correlate {
     /* Initiates computations based on correlation coefficient threshold, tau,
      * significance value, pval. Listener is used to notify client */
     public static void corrData(final double pval, final double tau, final Listener listener) throws Exception {
-        corrData(pval, tau, null, listener);
+        corrData(pval, tau, new String[0], listener);
     }
     
     /* Initiate computation with an initial gene of interest, priorityGene */
     public static void corrData(final double pval, final double tau, String priorityGene, final Listener listener) throws Exception {
-        if (isAggregated) {
-            Correlate.priorityGene = priorityGene;
+        corrData(pval, tau, (priorityGene != null) ? new String[] {priorityGene} : new String[0], listener);
+    }
+    
+    /* Initiate computation with initial genes of interest, priorityGenes */
+    public static void corrData(final double pval, final double tau, String[] priorityGenes, final Listener listener) throws Exception {
+        if (!isAggregated) {
+            end();
+            throw new Exception("No correlational computations are running");
+        }
+        //refuse a new run before touching the session that the running one uses
+        if (!RUNS.tryAcquire()) {
+            throw new Exception("Previous computations are still running");
+        }
+        boolean isSubmitted = false;
+        try {
+            Correlate.priorityGenes = priorityGenes.clone();
             Correlate.pVal = pval;
             Correlate.tau = tau;
             
             assert listener != null;
             Correlate.listener = listener;
+            notifications = DISPATCHER.channel();
+            //the listener is driven by the session's edge publisher
+            final EdgePublisher publisher = takePublisher();
+            networkStats = new NetworkStats(origGeneList.length);
+            SessionListener session = new SessionListener(notifications, listener, networkStats);
+            session.subscriber = new ListenerSubscriber(origGeneList, session);
+            publisher.subscribe(session.subscriber);
+            if (measure != null) {
+                corrDataJava(pval, tau, publisher, session.subscriber, networkStats);
+                isSubmitted = true;
+                return;
+            }
             // call corrData in a background thread
             Runnable task = new Runnable() {
                 @Override
                 public void run() {
                     String correlate = String.format("%s <- corrData(%s, %f, %f)", corrEnv, aggDT, pval, tau);
-                    re.eval(correlate);
+                    RBackend.eval(correlate);
                     //check if successful
-                    isCorrelated = notNull(corrEnv, re);
-                    if (prevThread != null && prevThread.isAlive()) {
-                        prevThread.interrupt();
-                    }
-                    
-                    if (isCorrelated) {
-                        listener.onCompleted();
+                    if (RBackend.notNull(corrEnv)) {
+                        publisher.close();
                     } else {
-                        listener.onFailed();
+                        publisher.closeExceptionally(new Exception("corrData failed in R"));
                     }
                 }
             };
             
-            Thread thread = new Thread(task);
-            thread.start();
-        } else {
-            end();
-            throw new Exception("No correlational computations are running");
+            submit(task);
+            isSubmitted = true;
+        } finally {
+            if (!isSubmitted) {
+                RUNS.release();
+            }
         }
     }
     
+    /*runs a session's computations on the session runner; the task gives back the permit
+     *of RUNS that its corrData call took*/
+    private static void submit(final Runnable task) throws Exception {
+        try {
+            RUNNER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        RUNS.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new Exception("Computations could not be started");
+        }
+    }
+    
+    /* Runs the Java engine in a background thread */
+    private static void corrDataJava(final double pval, final double tau, final EdgePublisher publisher,
+            final ListenerSubscriber subscriber, final NetworkStats networkStats) throws Exception {
+        final CorrelationKernel kernel = Correlate.kernel;
+        final double recall = candidateRecall;
+        final boolean isPruning = Correlate.isPruning;
+        final ResultCache cache = resultCache;
+        final Object[] parameters = {measure.name(), pval, tau, isFdr, permutations, recall, isPruning};
+        final int[] priority = geneIndices(priorityGenes);
+        final boolean isDeferred = isFdr || permutations > 0;
+        final CorrelationEngine engine = new CorrelationEngine(kernel, pval, tau);
+        Correlate.engine = engine;
+        if (isFdr) {
+            engine.setFdr(pval);
+        }
+        if (permutations > 0) {
+            engine.setPermutationTest(permutations);
+        }
+        engine.setPriorityGenes(priority);
+        
+        final CorrelationEngine.Observer observer = new CorrelationEngine.Observer() {
+            public void onEdges(int[] first, int[] second, float[] values, int from, int to) {
+                networkStats.addBatch(first, second, values, from, to, 0);
+                try {
+                    publisher.publish(first, second, values, from, to);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            public void onPriorityCompleted(int gene) {
+                if (isDeferred) {
+                    //nothing is published before the end, so the listener gets the candidates
+                    int E = engine.E();
+                    int[] first = new int[E];
+                    int[] second = new int[E];
+                    for (int i = 0; i < E; i++) {
+                        first[i] = engine.first()[i] + 1;
+                        second[i] = engine.second()[i] + 1;
+                    }
+                    subscriber.offerSnapshot(new EdgeList(first, second, origGeneList, Arrays.copyOf(engine.values(), E)));
+                }
+                try {
+                    publisher.priorityCompleted(gene);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String key = cacheKey(cache, parameters);
+                    ResultCache.Entry cached = (key != null) ? cache.get(key) : null;
+                    if (cached != null) {
+                        //replay the cached run as if the engine had found its edges
+                        observer.onEdges(cached.first(), cached.second(), cached.values(), 0, cached.E());
+                        for (int gene : priority) {
+                            publisher.priorityCompleted(gene);
+                        }
+                        corrVec = cached.corrVec();
+                        publisher.close();
+                        return;
+                    }
+                    if (recall == 0 && !isPruning) {
+                        engine.retainMatrix();
+                    }
+                    if (recall > 0) {
+                        engine.setCandidateFilter(new SimHashFilter(kernel, tau, recall));
+                    }
+                    if (isPruning) {
+                        engine.setPivotPruning(new PivotPruning(kernel, tau));
+                    }
+                    engine.run(observer);
+                    corrVec = engine.corrVec();
+                    publisher.close();
+                    if (key != null) {
+                        int E = engine.E();
+                        cache.put(key, new ResultCache.Entry(Arrays.copyOf(engine.first(), E), Arrays.copyOf(engine.second(), E),
+                                Arrays.copyOf(engine.values(), E), corrVec));
+                    }
+                } catch (RuntimeException e) {
+                    System.out.println(e);
+                    publisher.closeExceptionally(e);
+                } catch (InterruptedException e) {
+                    publisher.closeExceptionally(e);
+                }
+            }
+        };
+        
+        submit(task);
+    }
+    
+    /*key of the session's data set and parameters in cache, or null if there is no cache;
+     * the data set is identified by the bytes start() parsed, so a file changed since then
+     * does not take over the session's results*/
+    private static String cacheKey(ResultCache cache, Object[] parameters) {
+        if (cache == null || fingerprint == null) {
+            return null;
+        }
+        return ResultCache.key(fingerprint, parameters);
+    }
+    
+    /*indices of the known genes (or aliases) among names ignoring case, in order*/
+    private static int[] geneIndices(String[] names) {
+        GeneDictionary dictionary = Correlate.dictionary;
+        return (dictionary != null) ? dictionary.ids(names) : new int[0];
+    }
+    
+    /* Returns the dictionary of the session's gene names and aliases */
+    public static GeneDictionary getGeneDictionary() throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        return dictionary;
+    }
+    
+    /* Adds the aliases of a table of "alias,gene" lines (e.g. probe ids to HGNC symbols)
+     * to the gene names accepted by the lookups of this session */
+    public static void loadGeneAliases(File file) throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        dictionary = dictionary.withAliases(GeneDictionary.loadAliases(file));
+    }
+    
     /* Set the gene of interest to priority */
     public static void setPriorityGene(String priority) throws Exception {
+        setPriorityGenes((priority != null) ? new String[] {priority} : new String[0]);
+    }
+    
+    /* Set the genes of interest to priority, replacing those that have not been computed
+     * yet. Their rows are computed concurrently and the listener is notified once per gene;
+     * the search then carries on where it was. */
+    public static synchronized void setPriorityGenes(String[] priority) throws Exception {
+        if (!isInitialized) throw new Exception("No correlational computations are running");
+        priorityGenes = priority.clone();
+        if (engine != null) {
+            engine.setPriorityGenes(geneIndices(priority));
+        }
+    }
+    
+    /* Add genes of interest after those that are already waiting */
+    public static synchronized void addPriorityGenes(String[] priority) throws Exception {
         if (!isInitialized) throw new Exception("No correlational computations are running");
-        priorityGene = priority;
+        String[] genes = Arrays.copyOf(priorityGenes, priorityGenes.length + priority.length);
+        System.arraycopy(priority, 0, genes, priorityGenes.length, priority.length);
+        priorityGenes = genes;
+        if (engine != null) {
+            engine.addPriorityGenes(geneIndices(priority));
+        }
     }
     
     /* Returns all co-expressed genes with their corresponding p-values. This method should only
@@ -228,16 +563,28 @@ public class Correlate {
         return edgeList;
     }
     
+    /* Replaces the edge list of a completed session by its compressed form (about a quarter
+     * of the memory, sorted by first gene, values rounded to 16 bits) */
+    public static EdgeList compressEdgeList() throws Exception {
+        EdgeList compressed = getEdgeList().compress();
+        edgeList = compressed;
+        return compressed;
+    }
+    
     /* Returns all pairs of co-expressed genes, where at least one of the two genes are in the
      * geneList. This method can be called before all computations have concluded. */
     public static EdgeList getEdgeList(String[] geneList) throws Exception {
         if (!isInitialized) {
             throw new Exception("No correlational computations are running");
         }
-        HashSet<String> geneSet = new HashSet<String>(Arrays.asList(geneList));
+        boolean[] isSelected = new boolean[origGeneList.length];
+        for (int id : geneIndices(geneList)) {
+            isSelected[id] = true;
+        }
+        EdgeList edgeList = Correlate.edgeList;
         ArrayList<Integer> indexList = new ArrayList<Integer>();
-        for (int i = 0; i < edgeList.first().length; i++) {
-            if (geneSet.contains(edgeList.getFirstName(i)) || geneSet.contains(edgeList.getSecondName(i))) {
+        for (int i = 0; i < edgeList.E(); i++) {
+            if (isSelected[edgeList.firstId(i)] || isSelected[edgeList.secondId(i)]) {
                 indexList.add(i);
             }
         }
@@ -245,15 +592,38 @@ public class Correlate {
         int[] second = new int[indexList.size()];
         float[] values = new float[indexList.size()];
         
+        String[] columnNames = edgeList.columnNames();
+        float[][] columns = edgeList.columns();
+        float[][] selectedColumns = new float[columns.length][indexList.size()];
+        
         int arrayIndex = 0;
         for (Integer index : indexList) {
-            first[arrayIndex] = edgeList.first[index];
-            second[arrayIndex] = edgeList.second[index];
-            values[arrayIndex] = edgeList.values[index];
+            first[arrayIndex] = edgeList.firstId(index) + 1;
+            second[arrayIndex] = edgeList.secondId(index) + 1;
+            values[arrayIndex] = edgeList.getValue(index);
+            for (int c = 0; c < columns.length; c++) {
+                selectedColumns[c][arrayIndex] = columns[c][index];
+            }
             arrayIndex++;
         }
         
-        return new EdgeList(first, second, edgeList.names, values);
+        EdgeList selected = new EdgeList(first, second, edgeList.names, values);
+        for (int c = 0; c < columns.length; c++) {
+            selected.addColumn(columnNames[c], selectedColumns[c]);
+        }
+        return selected;
+    }
+    
+    /* Returns the degree, component and hub statistics gathered while edges were being
+     * generated. Clustering coefficients and k-cores are available once computations have
+     * completed. This method can be called before all computations have concluded. */
+    public static NetworkStats getNetworkStats() throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (networkStats == null)
+            throw new Exception("No edges have been generated yet");
+        
+        return networkStats;
     }
     
     /* Construct a gene co-expression network using the provided edgelist */
@@ -277,12 +647,15 @@ public class Correlate {
             throw new Exception("No correlational computations are running");
         }
         
+        if (isCorrelated && measure != null) {
+            return writeMatrix(filePath, false);
+        }
         if (isCorrelated) {
             //output correlation matrix
             String write = String.format("OC <- outMatrix(%s$corrVec, %s$index, \'%s\')", corrEnv, corrEnv, filePath);
-            re.eval(write);
+            RBackend.eval(write);
             //check if successful
-            success = notNull("OC", re);
+            success = RBackend.notNull("OC");
         }
         return success;
         
@@ -300,28 +673,163 @@ public class Correlate {
             throw new Exception("No correlational computations are running");
         }
         
+        if (isCorrelated && measure != null) {
+            return writeMatrix(filePath, true);
+        }
         if (isCorrelated) {
             String write = String.format("OP <- outMatrix(%s$pVec, %s$index, \'%s\')", corrEnv, corrEnv, filePath);
-            re.eval(write);
+            RBackend.eval(write);
             //check if successful
-            success = notNull("OP", re);
+            success = RBackend.notNull("OP");
         }
         return success;
     }
     
+    /* Writes the engine's correlations (or their p-values) in the format of outMatrix() in
+     * corrData.R: a header of gene names, then the lower triangle of the matrix */
+    private static boolean writeMatrix(String filePath, boolean pValues) {
+        if (corrVec == null) {
+            System.out.println("The correlation matrix is not kept when pairs are prefiltered or pruned");
+            return false;
+        }
+        return writeMatrix(filePath, origGeneList, corrVec, kernel, pValues);
+    }
+    
+    /* Writes the lower triangle corrVec of the kernel's genes (or its p-values) to filePath */
+    static boolean writeMatrix(String filePath, String[] names, float[] corrVec, CorrelationKernel kernel, boolean pValues) {
+        int N = names.length;
+        try {
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(filePath)));
+            StringBuilder line = new StringBuilder();
+            for (int j = 0; j < N; j++) {
+                if (j > 0) line.append('\t');
+                line.append(names[j]);
+            }
+            writer.println(line);
+            for (int i = 0; i < N; i++) {
+                line.setLength(0);
+                for (int j = 0; j < N; j++) {
+                    if (j > 0) line.append('\t');
+                    if (j < i) {
+                        float r = corrVec[(int) Stats.triangleIndex(i, j, N)];
+                        line.append(pValues ? (float) kernel.pValue(r, i, j) : r);
+                    } else {
+                        line.append(' ');
+                    }
+                }
+                writer.println(line);
+            }
+            writer.close();
+            return !writer.checkError();
+        } catch (IOException e) {
+            System.out.println(e);
+            return false;
+        }
+    }
+    
+    /* Compares the correlations of two groups of samples of the session's data set, e.g.
+     * tumour and normal columns, in one pass (see DifferentialCoexpression). Returns the
+     * pairs whose Fisher z difference has a p-value of at most pval. Only available in
+     * Java sessions; independent of corrData, and can run while it does. */
+    public static DifferentialCoexpression.Result corrDiff(String[] samplesA, String[] samplesB, double pval) throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (measure == null)
+            throw new Exception("Differential co-expression requires a session started with a correlation measure");
+        try {
+            return new DifferentialCoexpression(matrix, samplesA, samplesB, measure).run(pval, 0);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage());
+        }
+    }
+    
+    /* Scores every edge of the completed session by its bootstrap stability, the fraction
+     * of replicates in which it still passes the session's pval and tau when the samples are
+     * resampled (see BootstrapStability), and adds it to the edge list as the column
+     * "stability", which outEdgeList writes after the correlation. In FDR and permutation
+     * sessions the replicates test each edge's own p-value against pval. */
+    public static EdgeList bootstrapStability(int replicates) throws Exception {
+        EdgeList edgeList = getEdgeList();
+        if (kernel == null)
+            throw new Exception("Bootstrap stability requires a session started with a correlation measure");
+        int[] first = new int[edgeList.E()];
+        int[] second = new int[edgeList.E()];
+        for (int i = 0; i < edgeList.E(); i++) {
+            first[i] = edgeList.firstId(i);
+            second[i] = edgeList.secondId(i);
+        }
+        try {
+            edgeList.addColumn("stability", new BootstrapStability(kernel, pVal, tau).stability(first, second, replicates));
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage());
+        }
+        return edgeList;
+    }
+    
+    /* Pools the co-expression of several aggregated data sets (cohorts) whose genes overlap,
+     * such as the profiling_*_cancer.csv files, by a weighted Fisher-z meta-analysis (see
+     * MetaAnalysis). Genes are matched by name, ignoring case, and pooled if at least two
+     * cohorts have them. The edges carry the pooled correlation and the columns "p", "Q"
+     * and "I2" (Cochran's heterogeneity statistics) and "cohorts". No session is needed. */
+    public static EdgeList corrMeta(File[] files, CorrelationMeasure measure, double pval, double tau) throws Exception {
+        ExpressionMatrix[] cohorts = new ExpressionMatrix[files.length];
+        for (int k = 0; k < files.length; k++) {
+            cohorts[k] = ExpressionMatrix.load(files[k]);
+        }
+        try {
+            return new MetaAnalysis(cohorts, measure).run(pval, tau);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage());
+        }
+    }
+    
+    /* Returns the sample names of the session's data set */
+    public static String[] getSampleNames() throws Exception {
+        if (!isInitialized)
+            throw new Exception("No correlational computations are running");
+        if (matrix == null)
+            throw new Exception("Sample names are only available in Java sessions");
+        return matrix.sampleNames();
+    }
+    
     /* Save the edge list to file at filePath */
     public static boolean outEdgeList(String filePath) throws Exception {
+        return outEdgeList(filePath, false);
+    }
+    
+    /* Save the edge list to file at filePath, first sorting it by gene ids if isSorted so
+     * that the files of two runs can be compared line by line */
+    public static boolean outEdgeList(String filePath, boolean isSorted) throws Exception {
+        EdgeList edgeList;
+        try {
+            edgeList = getEdgeList();
+        } catch (Exception e) {
+            System.out.println(e);
+            return false;
+        }
+        if (isSorted) {
+            edgeList.sortByGenes();
+        }
+        return outEdgeList(edgeList, filePath);
+    }
+    
+    /* Save an edge list, such as the result of corrMeta, to file at filePath: one line per
+     * edge with the gene names, the value and the edge list's columns */
+    public static boolean outEdgeList(EdgeList edgeList, String filePath) {
         boolean success = false;
         
         try {
             File file = new File(filePath);
-            PrintWriter writer = new PrintWriter(file);
-            EdgeList edgeList = getEdgeList();
-            for (int i = 0; i < edgeList.first().length; i++) {
-                String first = edgeList.getFirstName(i);
-                String second = edgeList.getSecondName(i);
-                float value = edgeList.values()[i];
-                writer.println(first + "," + second + "," + value);
+            PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+            float[][] columns = edgeList.columns();
+            StringBuilder line = new StringBuilder();
+            for (EdgeList.Cursor cursor = edgeList.cursor(); cursor.next(); ) {
+                line.setLength(0);
+                line.append(cursor.firstName()).append(',').append(cursor.secondName()).append(',').append(cursor.value());
+                for (float[] column : columns) {
+                    line.append(',').append(column[cursor.index()]);
+                }
+                writer.println(line);
             }
             writer.close();
             success = true;
@@ -337,7 +845,22 @@ public class Correlate {
     
     /* Called by R to retrieve most up-to-date priority gene */
     public static String getPriorityGene() {
-        return priorityGene;
+        String[] genes = priorityGenes;
+        return (genes.length > 0) ? genes[genes.length - 1] : null;
+    }
+    
+    /* Called by R to retrieve the most up-to-date priority genes */
+    public static String[] getPriorityGenes() {
+        return priorityGenes;
+    }
+    
+    /* Called by R to retrieve the 1-based indices of the most up-to-date priority genes */
+    public static int[] getPriorityGeneIds() {
+        int[] ids = geneIndices(priorityGenes);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i]++;
+        }
+        return ids;
     }
     
     /* Should only be accessed by R-backend */
@@ -363,20 +886,82 @@ public class Correlate {
             }
         }
         
-        edgeList = new EdgeList(newFirst, newSecond, origGeneList, newValues);
+        //R only ever appends to its edge data frame, so only the tail is new; corrData gives
+        //every run new stats, so their edge count is where this run's tail starts
+        NetworkStats networkStats = Correlate.networkStats;
+        if (networkStats == null) {
+            networkStats = new NetworkStats(origGeneList.length);
+            Correlate.networkStats = networkStats;
+        }
+        int from = (int) networkStats.E();
+        networkStats.addBatch(newFirst, newSecond, newValues, from, newFirst.length, 1);
+        
+        //publish the new tail with 0-based ids; completion follows once R returns
+        int count = newFirst.length - from;
+        int[] tailFirst = new int[count];
+        int[] tailSecond = new int[count];
+        for (int i = 0; i < count; i++) {
+            tailFirst[i] = newFirst[from + i] - 1;
+            tailSecond[i] = newSecond[from + i] - 1;
+        }
+        try {
+            publisher.publish(tailFirst, tailSecond, Arrays.copyOfRange(newValues, from, newValues.length), 0, count);
+            if (!isLast) {
+                publisher.priorityCompleted(-1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Nested class: SessionListener
+     * Receives the callbacks of the session's ListenerSubscriber, keeps the session state
+     * up to date and passes them on to the client's listener through the dispatcher
+     **/
+    private static class SessionListener implements Listener {
+        private final NotificationDispatcher.Channel channel;
+        private final Listener listener;
+        private final NetworkStats stats; //of this run, not of a later one
+        ListenerSubscriber subscriber;
 
-        if (!isLast) {
-            Runnable task = new Runnable() {
+        SessionListener(NotificationDispatcher.Channel channel, Listener listener, NetworkStats stats) {
+            this.channel = channel;
+            this.listener = listener;
+            this.stats = stats;
+        }
+
+        public void onPriorityCompleted(final EdgeList snapshot) {
+            edgeList = snapshot;
+            //a listener that is still busy only gets the newest snapshot
+            channel.post(new Runnable() {
                 @Override
                 public void run() {
-                    listener.onPriorityCompleted(edgeList);
+                    listener.onPriorityCompleted(snapshot);
                 }
-            };
-            if (prevThread != null && prevThread.isAlive()) {
-                prevThread.interrupt();
-            }
-            prevThread = new Thread(task);
-            prevThread.start();
+            });
+        }
+
+        public void onCompleted() {
+            edgeList = subscriber.edgeList();
+            stats.finish();
+            isCorrelated = true;
+            channel.send(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onCompleted();
+                }
+            });
+        }
+
+        public void onFailed() {
+            isCorrelated = false;
+            channel.send(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onFailed();
+                }
+            });
         }
     }
     
@@ -392,6 +977,8 @@ public class Correlate {
         private int[] second;
         private String[] names;
         private float[] values;
+        private CompressedEdgeList compressed; //instead of the arrays, if compressed
+        private final LinkedHashMap<String, float[]> columns = new LinkedHashMap<String, float[]>(); //extra values per edge
         private int E; //number of edges
         private boolean isValid = false;
         
@@ -410,26 +997,124 @@ public class Correlate {
             }
         }
         
+        public EdgeList(CompressedEdgeList compressed, String[] names) {
+            this.compressed = compressed;
+            this.names = names;
+            E = compressed.size();
+            isValid = true;
+        }
+        
+        /* A compressed copy of this edge list, see CompressedEdgeList; extra columns are
+         * copied in the compressed list's order */
+        public EdgeList compress() {
+            if (compressed != null) {
+                return this;
+            }
+            if (columns.isEmpty()) {
+                return new EdgeList(CompressedEdgeList.compress(first, second, values, 0, E, 1), names);
+            }
+            //the compressed list is sorted by genes, so sort a copy with its columns first
+            int[] sortedFirst = first.clone();
+            int[] sortedSecond = second.clone();
+            float[] sortedValues = values.clone();
+            float[][] sortedColumns = new float[columns.size()][];
+            int c = 0;
+            for (float[] column : columns.values()) {
+                sortedColumns[c++] = column.clone();
+            }
+            EdgeSort.byGenes(sortedFirst, sortedSecond, sortedValues, 0, E, sortedColumns);
+            EdgeList list = new EdgeList(CompressedEdgeList.compress(sortedFirst, sortedSecond, sortedValues, 0, E, 1), names);
+            c = 0;
+            for (String name : columns.keySet()) {
+                list.addColumn(name, sortedColumns[c++]);
+            }
+            return list;
+        }
+        
+        public boolean isCompressed() {
+            return compressed != null;
+        }
+        
+        /* Sorts the edges in place by first and then second gene; a compressed list is
+         * already in this order */
+        public void sortByGenes() {
+            if (compressed == null) {
+                EdgeSort.byGenes(first, second, values, 0, E, columns());
+            }
+        }
+        
+        /* Sorts the edges in place by decreasing absolute value */
+        public void sortByStrength() {
+            if (compressed != null) {
+                throw new IllegalStateException("A compressed edge list is sorted by genes");
+            }
+            EdgeSort.byStrength(first, second, values, 0, E, columns());
+        }
+        
+        /* Adds (or replaces) a column of one value per edge, such as the bootstrap
+         * stability; columns follow the edges when they are sorted and are exported after
+         * the correlation */
+        public void addColumn(String name, float[] column) {
+            if (column.length != E) {
+                throw new IllegalArgumentException("Column " + name + " has " + column.length + " values for " + E + " edges");
+            }
+            columns.put(name, column);
+        }
+        
+        /* The column called name, or null */
+        public float[] getColumn(String name) {
+            return columns.get(name);
+        }
+        
+        public String[] columnNames() {
+            return columns.keySet().toArray(new String[columns.size()]);
+        }
+        
+        /*the columns in the order they were added*/
+        float[][] columns() {
+            return columns.values().toArray(new float[columns.size()][]);
+        }
+        
+        /* A cursor before the first edge, visiting the edges in their current order */
+        public Cursor cursor() {
+            return new Cursor();
+        }
+        
         /*check if valid*/
         public boolean isValid() {
             return isValid;
         }
         
-        /*access methods*/
+        /* access methods: first(), second() and values() decode a compressed list on every
+         * call, so loops should use E() and the accessors of edge i instead */
         public int[] first() {
+            if (compressed != null) {
+                return decode()[0];
+            }
             return first;
         }
+        /*0-based id of the first gene of edge i*/
+        public int firstId(int i) {
+            return (compressed != null) ? compressed.source(i) : first[i] - 1;
+        }
         public String getFirstName(int i) {
-            return names[first[i] - 1];
+            return names[firstId(i)];
             //this may throw array out of bounds error
             //subtract 1 because R is 1-indexed and Java is 0-indexed
         }
         
         public int[] second() {
+            if (compressed != null) {
+                return decode()[1];
+            }
             return second;
         } 
+        /*0-based id of the second gene of edge i*/
+        public int secondId(int i) {
+            return (compressed != null) ? compressed.target(i) : second[i] - 1;
+        }
         public String getSecondName(int i) {
-            return names[second[i] - 1];
+            return names[secondId(i)];
             //this may throw array out of bounds error
             //subtract 1 because R is 1-indexed and Java is 0-indexed
         }
@@ -438,8 +1123,23 @@ public class Correlate {
             return names;
         }
         public float[] values() {
+            if (compressed != null) {
+                float[] values = new float[E];
+                compressed.decode(new int[E], new int[E], values, 1);
+                return values;
+            }
             return values;
         } 
+        public float getValue(int i) {
+            return (compressed != null) ? compressed.value(i) : values[i];
+        }
+        
+        /*1-based first and second ids of a compressed list*/
+        private int[][] decode() {
+            int[][] ids = {new int[E], new int[E]};
+            compressed.decode(ids[0], ids[1], new float[E], 1);
+            return ids;
+        }
         
         /*number of edges*/
         public int E() {
@@ -448,16 +1148,57 @@ public class Correlate {
 
         public List<String> getAllEntries() {
             ArrayList<String> list = new ArrayList<String>();
-            for (int i = 0; i < edgeList.first().length; i++) {
-                String first = edgeList.getFirstName(i);
-                String second = edgeList.getSecondName(i);
-                float value = edgeList.values()[i];
-                list.add(first + "," + second + "," + value);
+            for (Cursor cursor = cursor(); cursor.next(); ) {
+                list.add(cursor.firstName() + "," + cursor.secondName() + "," + cursor.value());
             }
 
             Collections.sort(list);
             return list;
         }
+        
+        /**
+         * Nested class: Cursor
+         * Visits the edges of an EdgeList in order without allocating. A cursor belongs to
+         * one thread.
+         **/
+        public class Cursor {
+            private int i = -1;
+            private final CompressedEdgeList.Cursor decoder = (compressed != null) ? compressed.cursor() : null;
+            
+            /* Moves to the next edge; false after the last one */
+            public boolean next() {
+                if (i + 1 >= E) {
+                    i = E;
+                    return false;
+                }
+                i++;
+                if (decoder != null) {
+                    decoder.next();
+                }
+                return true;
+            }
+            
+            /*access methods*/
+            public int index() {
+                return i;
+            }
+            /*0-based ids*/
+            public int firstId() {
+                return (decoder != null) ? decoder.source() : first[i] - 1;
+            }
+            public int secondId() {
+                return (decoder != null) ? decoder.target() : second[i] - 1;
+            }
+            public String firstName() {
+                return names[firstId()];
+            }
+            public String secondName() {
+                return names[secondId()];
+            }
+            public float value() {
+                return (decoder != null) ? decoder.value() : values[i];
+            }
+        }
     }
     
     public static interface Listener {
@@ -6,26 +6,32 @@ public class CorrelationClient {
 
     private static void handleNewPriority() {
         Scanner in = new Scanner(System.in);
-        System.out.println("Computations for gene of interest has been completed... Enter new gene of interest if desired: ");
+        System.out.println("Computations for gene of interest has been completed... Enter new genes of interest if desired: ");
         try {
-            String newPriority = in.next();
-            if (!Correlate.hasCompleted()) {
-                Correlate.setPriorityGene(newPriority);
+            String[] newPriority = splitGenes(in.nextLine());
+            if (!Correlate.hasCompleted() && newPriority.length > 0) {
+                Correlate.setPriorityGenes(newPriority);
             }
         }catch (Exception e) {
             ///
         }
     }
     
+    /*gene names separated by commas or whitespace*/
+    private static String[] splitGenes(String line) {
+        String trimmed = line.trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("[,\\s]+");
+    }
+    
     public static void main(String[] args) {
         final Scanner in = new Scanner(System.in);
         Correlate.Listener listener = new Correlate.Listener() {
             public void onPriorityCompleted(Correlate.EdgeList edgeList) {
                 System.out.println("--------------------------------------------------");
-                for (int i = 0; i < edgeList.first().length; i++) {
+                for (int i = 0; i < edgeList.E(); i++) {
                     String first = edgeList.getFirstName(i);
                     String second = edgeList.getSecondName(i);
-                    float value = edgeList.values()[i];
+                    float value = edgeList.getValue(i);
                     System.out.format("%-10s%-10s%-10.2f\n", first, second, value);
                 }
                 if (!Correlate.hasCompleted()) {
@@ -92,9 +98,18 @@ public class CorrelationClient {
             Correlate.end();
         }
         
+        System.out.print("Enter correlation method (pearson, spearman, kendall, bicor, or R to use the R backend) or leave blank for spearman: ");
+        String method = in.nextLine().trim();
+        
         File file = new File(filePath);
         try {
-            Correlate.start(file);
+            if (method.isEmpty()) {
+                Correlate.start(file);
+            } else if (method.equalsIgnoreCase("R")) {
+                Correlate.startWithR(file);
+            } else {
+                Correlate.start(file, CorrelationMeasure.forName(method));
+            }
         } catch (Exception e) {
             System.out.println(e);
             return;
@@ -106,13 +121,13 @@ public class CorrelationClient {
         System.out.print("Enter your significance level: ");
         pVal = Double.parseDouble(in.nextLine().trim());
         
-        String priorityGene = null;
+        String[] priorityGenes = new String[0];
         while (true) {
             System.out.print("Do you have a specific gene of interest? (Y/N): ");
             String val = in.nextLine().trim();
             if (val.equals("Y")) {
-                System.out.print("Enter your gene of interest: ");
-                priorityGene = in.nextLine();
+                System.out.print("Enter your genes of interest (separated by commas): ");
+                priorityGenes = splitGenes(in.nextLine());
                 break;
             } else if (val.equals("N")) {
                 break;
@@ -122,7 +137,7 @@ public class CorrelationClient {
         }
         
         try {
-            Correlate.corrData(pVal, tau, priorityGene, listener);
+            Correlate.corrData(pVal, tau, priorityGenes, listener);
         } catch (Exception e) {
             System.out.println(e);
             return;
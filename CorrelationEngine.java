@@ -0,0 +1,613 @@
+/*import libraries*/
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Java port of corrData() in corrData.R. Genes are expanded in breadth-first order from
+ * gene 0; each expanded gene is correlated against every gene that has not been expanded
+ * yet, so every pair is evaluated once. Priority genes jump the queue without discarding
+ * it: up to PRIORITY_BATCH of them are expanded together, their rows computed
+ * concurrently, and the search then resumes from the frontier it had.
+ * Pairs with pVal <= P and |r| >= tau become edges and their partners are queued.
+ * With setFdr() the per-pair cutoff P is replaced by Benjamini-Hochberg control at
+ * level q over all N(N-1)/2 tests (see FdrControl), and with setPermutationTest() every
+ * pair with |r| >= tau is kept as a candidate and tested by permutation (see
+ * PermutationTest) once the search is done. With setCandidateFilter() only the candidate
+ * pairs of a SimHashFilter are correlated, and with setPivotPruning() pairs that pivot
+ * bounds prove to be below tau are skipped (see PivotPruning).
+ * Gene ids are 0-based here; Correlate converts them to the 1-based ids of EdgeList. */
+public class CorrelationEngine {
+    public static final int PRIORITY_BATCH = 32;
+
+    /*instance variables*/
+    private final CorrelationKernel kernel;
+    private final double P;
+    private final double tau;
+    private final int N;
+
+    //breadth-first search state
+    private final boolean[] visited;
+    private final boolean[] queued;
+    private final int[] queue; //ring buffer, every gene is queued at most once at a time
+    private int head, size;
+    private int lastCheckedIndex;
+    private volatile int expanded;
+
+    //priority genes waiting to be expanded, guarded by this
+    private int[] pending = new int[16];
+    private int pendingCount;
+
+    //edges found so far
+    private int[] first = new int[1024];
+    private int[] second = new int[1024];
+    private float[] values = new float[1024];
+    private double[] exactValues; //the correlations of the edges in double, if retained
+    private int E;
+
+    //FDR mode: the histogram, and p-values and bins of the candidate edges
+    private FdrControl fdr;
+    private double[] pValues;
+    private int[] bins;
+
+    //permutation mode
+    private PermutationTest permutationTest;
+
+    //candidate mode: only pairs the filter lets through are correlated
+    private SimHashFilter filter;
+
+    //pruning mode: pairs proven to be below tau are not correlated
+    private PivotPruning pruning;
+    private final AtomicLong pruned = new AtomicLong();
+
+    //strict lower triangle of the correlation matrix, as corrEnv$corrVec in R
+    private float[] corrVec;
+
+    //scratch space for one expansion: the columns, and one row per expanded gene
+    private final int[] cols;
+    private final Row[] rows = new Row[PRIORITY_BATCH];
+
+    /*constructor*/
+    public CorrelationEngine(CorrelationKernel kernel, double pval, double tau) {
+        this.kernel = kernel;
+        this.P = pval;
+        this.tau = tau;
+        N = kernel.size();
+        visited = new boolean[N];
+        queued = new boolean[N];
+        queue = new int[Math.max(1, N)];
+        cols = new int[N];
+    }
+
+    /* Keeps every evaluated correlation so that the full matrix can be written out.
+     * Needs N(N-1)/2 floats; call before run(). */
+    public void retainMatrix() {
+        if (filter != null) {
+            throw new IllegalStateException("The correlation matrix is incomplete with a candidate filter");
+        }
+        if (pruning != null) {
+            throw new IllegalStateException("The correlation matrix is incomplete with pivot pruning");
+        }
+        if (corrVec == null) {
+            corrVec = new float[(int) ((long) N * (N - 1) / 2)];
+        }
+    }
+
+    /* Also keeps the correlation of every edge in double, as the edge was decided on, so
+     * that the edges can be filtered again by stricter thresholds with exactly the same
+     * result as a run at those thresholds; call before run(). */
+    public void retainExactValues() {
+        if (exactValues == null) {
+            exactValues = new double[first.length];
+        }
+    }
+
+    /* Controls the false discovery rate at level q instead of filtering every pair by
+     * pVal <= P; call before run(). Edges are only final once run() returns, so in this
+     * mode the observer gets all of them in one onEdges() call at the end, and
+     * onPriorityCompleted() comes before any edges; the candidates found so far (|r| >= tau and
+     * p <= q) are in first(), second() and values() up to E() at that point, and
+     * Correlate passes them to the listener as its priority snapshots. */
+    public void setFdr(double q) {
+        if (permutationTest != null) {
+            throw new IllegalStateException("FDR control and permutation p-values cannot be combined");
+        }
+        if (filter != null) {
+            throw new IllegalStateException("FDR control needs every pair and cannot use a candidate filter");
+        }
+        if (pruning != null) {
+            throw new IllegalStateException("FDR control needs every pair and cannot use pivot pruning");
+        }
+        fdr = new FdrControl(q, kernel.measure(), kernel.samples());
+        pValues = new double[first.length];
+        bins = new int[first.length];
+    }
+
+    /* Replaces the asymptotic p-values by permutation p-values with at most
+     * maxPermutations permutations per pair; call before run(). As with setFdr(), edges
+     * are only final once run() returns. */
+    public void setPermutationTest(int maxPermutations) {
+        if (fdr != null) {
+            throw new IllegalStateException("FDR control and permutation p-values cannot be combined");
+        }
+        permutationTest = new PermutationTest(kernel, P);
+        permutationTest.setMaxPermutations(maxPermutations);
+    }
+
+    /* Correlates only the candidate pairs of filter, which must have been built on this
+     * engine's kernel with the same tau; call before run(). Pairs that the filter misses
+     * are not edges, so the edges are a subset of those of an exact run (see
+     * SimHashFilter.measureRecall()). Not available with FDR control or retainMatrix(). */
+    public void setCandidateFilter(SimHashFilter filter) {
+        if (filter.kernel() != kernel) {
+            throw new IllegalArgumentException("The filter was built for another data set");
+        }
+        if (fdr != null) {
+            throw new IllegalStateException("FDR control needs every pair and cannot use a candidate filter");
+        }
+        if (corrVec != null) {
+            throw new IllegalStateException("The correlation matrix is incomplete with a candidate filter");
+        }
+        this.filter = filter;
+    }
+
+    /* Skips the pairs that the bounds of pruning prove to have |r| < tau, which must have
+     * been built on this engine's kernel with the same tau; call before run(). The edges
+     * are exactly those of an exhaustive run. Not available with FDR control or
+     * retainMatrix(), which need every correlation. */
+    public void setPivotPruning(PivotPruning pruning) {
+        if (pruning.kernel() != kernel || pruning.tau() != tau) {
+            throw new IllegalArgumentException("The pruning bounds were built for another data set or tau");
+        }
+        if (fdr != null) {
+            throw new IllegalStateException("FDR control needs every pair and cannot use pivot pruning");
+        }
+        if (corrVec != null) {
+            throw new IllegalStateException("The correlation matrix is incomplete with pivot pruning");
+        }
+        this.pruning = pruning;
+    }
+
+    /*edges are filtered once the whole search is done*/
+    private boolean isDeferred() {
+        return fdr != null || permutationTest != null;
+    }
+
+    /* Expands gene next once the current genes are done (negative to clear) */
+    public void setPriorityGene(int gene) {
+        setPriorityGenes((gene >= 0) ? new int[] {gene} : new int[0]);
+    }
+
+    /* Replaces the priority genes that have not been expanded yet by genes */
+    public synchronized void setPriorityGenes(int[] genes) {
+        pendingCount = 0;
+        addPriorityGenes(genes);
+    }
+
+    /* Adds genes to the priority genes; they are expanded in the given order */
+    public synchronized void addPriorityGenes(int[] genes) {
+        for (int gene : genes) {
+            if (gene < 0 || gene >= N) {
+                continue;
+            }
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, 2 * pendingCount);
+            }
+            pending[pendingCount++] = gene;
+        }
+    }
+
+    /*removes up to max priority genes from the front of the pending list*/
+    private synchronized int takePriorityGenes(int[] out, int max) {
+        int count = Math.min(max, pendingCount);
+        System.arraycopy(pending, 0, out, 0, count);
+        System.arraycopy(pending, count, pending, 0, pendingCount - count);
+        pendingCount -= count;
+        return count;
+    }
+
+    /* Runs the whole search. observer is notified of every batch of new edges, and after
+     * each priority gene has been expanded. */
+    public void run(Observer observer) {
+        int visitCounter = 0;
+        int[] taken = new int[PRIORITY_BATCH];
+        int[] batch = new int[PRIORITY_BATCH];
+        enqueue(0);
+        while (visitCounter < N) {
+            int m = 0;
+            int count = takePriorityGenes(taken, PRIORITY_BATCH);
+            for (int k = 0; k < count; k++) {
+                int gene = taken[k];
+                if (visited[gene]) {
+                    //its edges are already known
+                    observer.onPriorityCompleted(gene);
+                } else if (!contains(batch, m, gene)) {
+                    batch[m++] = gene;
+                }
+            }
+            boolean isPriority = m > 0;
+            if (!isPriority) {
+                if (size == 0) {
+                    //enqueue a new gene to start
+                    for (int i = lastCheckedIndex; i < N; i++) {
+                        if (!visited[i]) {
+                            lastCheckedIndex = i + 1;
+                            enqueue(i);
+                            break;
+                        }
+                    }
+                }
+                int gene = dequeue();
+                queued[gene] = false;
+                if (visited[gene]) {
+                    continue;
+                }
+                batch[m++] = gene;
+            }
+
+            for (int b = 0; b < m; b++) {
+                visited[batch[b]] = true;
+            }
+            visitCounter += m;
+            expand(batch, m);
+            expanded = visitCounter;
+            for (int b = 0; b < m; b++) {
+                int from = E;
+                collect(b, batch[b]);
+                if (E > from && !isDeferred()) {
+                    observer.onEdges(first, second, values, from, E);
+                }
+                if (isPriority && visitCounter < N) {
+                    observer.onPriorityCompleted(batch[b]);
+                }
+            }
+        }
+        if (fdr != null) {
+            applyFdr();
+        }
+        if (permutationTest != null) {
+            applyPermutationTest();
+        }
+        if (isDeferred()) {
+            observer.onEdges(first, second, values, 0, E);
+        }
+    }
+
+    private static boolean contains(int[] genes, int count, int gene) {
+        for (int k = 0; k < count; k++) {
+            if (genes[k] == gene) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*keep the candidates whose permutation p-value is at most P*/
+    private void applyPermutationTest() {
+        pValues = permutationTest.pValues(first, second, E);
+        int kept = 0;
+        for (int i = 0; i < E; i++) {
+            if (pValues[i] <= P) {
+                first[kept] = first[i];
+                second[kept] = second[i];
+                values[kept] = values[i];
+                if (exactValues != null) {
+                    exactValues[kept] = exactValues[i];
+                }
+                pValues[kept] = pValues[i];
+                kept++;
+            }
+        }
+        E = kept;
+    }
+
+    /*keep the candidates that pass the Benjamini-Hochberg cutoff*/
+    private void applyFdr() {
+        double cutoff = fdr.cutoff(pValues, bins, E);
+        int kept = 0;
+        for (int i = 0; i < E; i++) {
+            if (pValues[i] <= cutoff) {
+                first[kept] = first[i];
+                second[kept] = second[i];
+                values[kept] = values[i];
+                if (exactValues != null) {
+                    exactValues[kept] = exactValues[i];
+                }
+                pValues[kept] = pValues[i];
+                bins[kept] = bins[i];
+                kept++;
+            }
+        }
+        E = kept;
+    }
+
+    /* Correlates the genes batch[0..m), which were just marked visited, against every
+     * unvisited gene and against the genes after them in the batch. The columns are laid
+     * out as the batch followed by the unvisited genes, so gene b uses cols[b+1..n); with a
+     * candidate filter every gene gets its own columns instead.
+     * Every (gene, column block) is a separate task. */
+    private void expand(final int[] batch, final int m) {
+        int n = 0;
+        for (int b = 0; b < m; b++) {
+            cols[n++] = batch[b];
+        }
+        for (int i = 0; i < N; i++) {
+            if (!visited[i]) {
+                cols[n++] = i;
+            }
+        }
+        long work = 0;
+        for (int b = 0; b < m; b++) {
+            if (rows[b] == null) {
+                rows[b] = new Row(N, fdr != null, pruning != null);
+            }
+            Row row = rows[b];
+            if (filter != null) {
+                selectCandidates(batch[b], row, b, m, n);
+            } else {
+                row.cols = cols;
+                row.from = b + 1;
+                row.to = n;
+            }
+            work += row.to - row.from;
+        }
+        int block = Math.max(64, Parallel.grain((int) Math.min(work, Integer.MAX_VALUE)));
+        int tasks = 0;
+        for (int b = 0; b < m; b++) {
+            tasks += (rows[b].to - rows[b].from + block - 1) / block;
+        }
+        final int[] taskRow = new int[tasks];
+        final int[] taskFrom = new int[tasks];
+        final int[] taskTo = new int[tasks];
+        int t = 0;
+        for (int b = 0; b < m; b++) {
+            for (int c = rows[b].from; c < rows[b].to; c += block) {
+                taskRow[t] = b;
+                taskFrom[t] = c;
+                taskTo[t] = Math.min(rows[b].to, c + block);
+                t++;
+            }
+        }
+        Parallel.forRange(0, tasks, 1, new Parallel.Range() {
+            public void run(int from, int to) {
+                for (int t = from; t < to; t++) {
+                    int b = taskRow[t];
+                    score(batch[b], rows[b], taskFrom[t], taskTo[t]);
+                }
+            }
+        });
+    }
+
+    /*the columns of batch gene b among cols[b+1..n) that the filter lets through; the
+     * batch takes cols[0..m)*/
+    private void selectCandidates(int gene, Row row, int b, int m, int n) {
+        if (row.candidates == null) {
+            row.candidates = new int[N];
+        }
+        int[] candidates = row.candidates;
+        int count = 0;
+        if (filter.isExhaustive(gene)) {
+            System.arraycopy(cols, b + 1, candidates, 0, n - b - 1);
+            count = n - b - 1;
+        } else {
+            for (int c = b + 1; c < m; c++) {
+                if (filter.isCandidate(gene, cols[c])) {
+                    candidates[count++] = cols[c];
+                }
+            }
+            for (int k = 0; k < filter.degree(gene); k++) {
+                int j = filter.neighbour(gene, k);
+                if (!visited[j]) {
+                    candidates[count++] = j;
+                }
+            }
+            for (int j : filter.exhaustiveGenes()) {
+                if (!visited[j]) {
+                    candidates[count++] = j;
+                }
+            }
+        }
+        row.cols = candidates;
+        row.from = 0;
+        row.to = count;
+    }
+
+    /*correlations of gene with row.cols[from..to) and which of them are edges*/
+    private void score(int gene, Row row, int from, int to) {
+        int[] cols = row.cols;
+        double[] rowValues = row.values;
+        boolean[] isEdge = row.isEdge;
+        if (pruning != null) {
+            prune(gene, row, from, to);
+        } else {
+            kernel.row(gene, cols, from, to, rowValues);
+        }
+        if (fdr != null) {
+            for (int c = from; c < to; c++) {
+                double r = rowValues[c];
+                int j = cols[c];
+                if (kernel.sharedSamples(gene, j) == kernel.samples()) {
+                    row.bins[c] = fdr.recordCorrelation(r);
+                    row.p[c] = (Math.abs(r) >= tau) ? kernel.pValue(r) : 1;
+                } else {
+                    //fewer shared samples: the |r| bin edges do not apply
+                    row.p[c] = kernel.pValue(r, gene, j);
+                    row.bins[c] = fdr.record(row.p[c]);
+                }
+                isEdge[c] = Math.abs(r) >= tau && row.p[c] <= fdr.q();
+            }
+            return;
+        }
+        if (permutationTest != null) {
+            for (int c = from; c < to; c++) {
+                isEdge[c] = Math.abs(rowValues[c]) >= tau;
+            }
+            return;
+        }
+        for (int c = from; c < to; c++) {
+            double r = rowValues[c];
+            //the p-value is only needed for pairs that pass tau
+            isEdge[c] = Math.abs(r) >= tau && kernel.pValue(r, gene, cols[c]) <= P;
+        }
+    }
+
+    /*correlates only the columns the bounds cannot skip; skipped pairs get r = 0, which
+     * keeps them from becoming edges*/
+    private void prune(int gene, Row row, int from, int to) {
+        int[] cols = row.cols;
+        int[] kept = row.kept;
+        boolean[] isKept = row.isEdge;
+        int count = from;
+        for (int c = from; c < to; c++) {
+            isKept[c] = !pruning.canSkip(gene, cols[c]);
+            if (isKept[c]) {
+                kept[count++] = cols[c];
+            }
+        }
+        kernel.row(gene, kept, from, count, row.keptValues);
+        for (int c = from, k = from; c < to; c++) {
+            row.values[c] = isKept[c] ? row.keptValues[k++] : 0;
+        }
+        pruned.addAndGet((to - from) - (count - from));
+    }
+
+    /*keep the significant pairs of batch gene b and queue their partners*/
+    private void collect(int b, int gene) {
+        Row row = rows[b];
+        for (int c = row.from; c < row.to; c++) {
+            int j = row.cols[c];
+            if (corrVec != null) {
+                corrVec[(int) Stats.triangleIndex(gene, j, N)] = (float) row.values[c];
+            }
+            if (row.isEdge[c]) {
+                if (fdr != null) {
+                    addCandidate(E, row.p[c], row.bins[c]);
+                }
+                addEdge(gene, j, row.values[c]);
+                enqueue(j);
+            }
+        }
+    }
+
+    private void addEdge(int u, int v, double r) {
+        if (E == first.length) {
+            first = Arrays.copyOf(first, 2 * E);
+            second = Arrays.copyOf(second, 2 * E);
+            values = Arrays.copyOf(values, 2 * E);
+        }
+        if (exactValues != null && E == exactValues.length) {
+            exactValues = Arrays.copyOf(exactValues, first.length);
+        }
+        first[E] = u;
+        second[E] = v;
+        values[E] = (float) r;
+        if (exactValues != null) {
+            exactValues[E] = r;
+        }
+        E++;
+    }
+
+    private void addCandidate(int index, double p, int bin) {
+        if (index == pValues.length) {
+            pValues = Arrays.copyOf(pValues, 2 * index);
+            bins = Arrays.copyOf(bins, 2 * index);
+        }
+        pValues[index] = p;
+        bins[index] = bin;
+    }
+
+    private void enqueue(int gene) {
+        if (visited[gene] || queued[gene]) {
+            return;
+        }
+        queued[gene] = true;
+        queue[(head + size) % queue.length] = gene;
+        size++;
+    }
+
+    private int dequeue() {
+        int gene = queue[head];
+        head = (head + 1) % queue.length;
+        size--;
+        return gene;
+    }
+
+    /*access methods*/
+    public CorrelationKernel kernel() {
+        return kernel;
+    }
+    public double pval() {
+        return P;
+    }
+    public double tau() {
+        return tau;
+    }
+    public int E() {
+        return E;
+    }
+    /*number of genes expanded so far, out of kernel().size(); safe to read while running*/
+    public int expanded() {
+        return expanded;
+    }
+    public int[] first() {
+        return first;
+    }
+    public int[] second() {
+        return second;
+    }
+    public float[] values() {
+        return values;
+    }
+    /*correlations of the edges in double, or null if retainExactValues() was not called*/
+    public double[] exactValues() {
+        return exactValues;
+    }
+    /*number of pairs skipped by pivot pruning so far*/
+    public long pruned() {
+        return pruned.get();
+    }
+    /*p-values of the edges in FDR and permutation mode, otherwise null*/
+    public double[] pValues() {
+        return pValues;
+    }
+    /*correlation matrix triangle, or null if retainMatrix() was not called*/
+    public float[] corrVec() {
+        return corrVec;
+    }
+
+    /**
+     * Nested class: Row
+     * Scratch space for the row of one expanded gene: its columns cols[from..to) and the
+     * results, indexed like cols
+     **/
+    private static class Row {
+        int[] cols;
+        int from;
+        int to;
+        int[] candidates; //own columns, candidate mode only
+        final double[] values;
+        final boolean[] isEdge;
+        final double[] p; //FDR mode only
+        final int[] bins;
+        final int[] kept; //pruning mode only: the columns that are correlated
+        final double[] keptValues;
+
+        Row(int N, boolean isFdr, boolean isPruning) {
+            values = new double[N];
+            isEdge = new boolean[N];
+            p = isFdr ? new double[N] : null;
+            bins = isFdr ? new int[N] : null;
+            kept = isPruning ? new int[N] : null;
+            keptValues = isPruning ? new double[N] : null;
+        }
+    }
+
+    /**
+     * Nested interface: Observer
+     * Receives progress from run(); called on the thread that runs the engine
+     **/
+    public static interface Observer {
+        /* Edges [from, to) of the parallel arrays are new */
+        public void onEdges(int[] first, int[] second, float[] values, int from, int to);
+        /* A priority gene has been expanded; its edges were passed to onEdges() first */
+        public void onPriorityCompleted(int gene);
+    }
+}
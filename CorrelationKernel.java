@@ -0,0 +1,356 @@
+/*import libraries*/
+import java.util.*;
+
+/* Blocked multi-core correlation kernel. Every gene is prepared once by the session's
+ * CorrelationMeasure (for Spearman: ranked and standardized), after which most measures
+ * reduce a correlation to the dot product of two vectors of length sampleCount(). Pairs
+ * are evaluated in square tiles so that a tile's vectors stay in cache while all of its
+ * correlations are computed.
+ *
+ * Missing values are handled pairwise-complete, as cor(..., use = 'pairwise.complete.obs')
+ * in R. Genes with missing values keep a validity bitmask; for a pair involving such a
+ * gene the shared samples are found by a word-wise AND of the masks, both genes are
+ * re-prepared (e.g. re-ranked) over that subset only, and the p-value uses the number of
+ * shared samples. Pairs of complete genes take the fast path. */
+public class CorrelationKernel {
+    public static final int DEFAULT_BLOCK = 64;
+
+    /*instance variables*/
+    private final CorrelationMeasure measure;
+    private final double[][] vectors; //prepared vectors, one per gene
+    private final int samples;
+    private final double[][] rows; //raw values, shared with the ExpressionMatrix
+    private final long[][] masks; //validity bits of genes with missing values, null if complete
+    private final long[] fullMask;
+    private final boolean hasMissing;
+    private DotKernel dotKernel = DotKernel.getDefault();
+
+    /* per-thread tile buffers */
+    private final ThreadLocal<double[]> tileBuffer = new ThreadLocal<double[]>();
+    private final ThreadLocal<double[][]> pairBuffer = new ThreadLocal<double[][]>();
+
+    /*constructors*/
+    public CorrelationKernel(ExpressionMatrix matrix) {
+        this(matrix, CorrelationMeasure.SPEARMAN);
+    }
+    public CorrelationKernel(final ExpressionMatrix matrix, final CorrelationMeasure measure) {
+        this.measure = measure;
+        final int N = matrix.geneCount();
+        samples = matrix.sampleCount();
+        vectors = new double[N][];
+        rows = new double[N][];
+        masks = new long[N][];
+        fullMask = new long[(samples + 63) / 64];
+        for (int k = 0; k < samples; k++) {
+            fullMask[k >>> 6] |= 1L << k;
+        }
+        Parallel.forRange(0, N, Parallel.grain(N), new Parallel.Range() {
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    rows[i] = matrix.row(i);
+                    if (matrix.hasMissing(i)) {
+                        prepareIncomplete(i);
+                    } else {
+                        vectors[i] = measure.prepare(rows[i]);
+                    }
+                }
+            }
+        });
+        boolean missing = false;
+        for (int i = 0; i < N; i++) {
+            missing |= (masks[i] != null);
+        }
+        hasMissing = missing;
+    }
+
+    /*mask of the valid samples, and a vector prepared over them with zeros elsewhere*/
+    private void prepareIncomplete(int i) {
+        double[] row = rows[i];
+        long[] mask = new long[fullMask.length];
+        int valid = 0;
+        for (int k = 0; k < samples; k++) {
+            if (!Double.isNaN(row[k])) {
+                mask[k >>> 6] |= 1L << k;
+                valid++;
+            }
+        }
+        double[] values = new double[valid];
+        int m = 0;
+        for (int k = 0; k < samples; k++) {
+            if (!Double.isNaN(row[k])) values[m++] = row[k];
+        }
+        double[] prepared = (valid > 0) ? measure.prepare(values) : values;
+        double[] vector = new double[samples];
+        m = 0;
+        for (int k = 0; k < samples; k++) {
+            if (!Double.isNaN(row[k])) vector[k] = prepared[m++];
+        }
+        masks[i] = mask;
+        vectors[i] = vector;
+    }
+
+    /*number of genes*/
+    public int size() {
+        return vectors.length;
+    }
+
+    /*number of samples each correlation is computed over*/
+    public int samples() {
+        return samples;
+    }
+
+    /*measure used to prepare and correlate the genes*/
+    public CorrelationMeasure measure() {
+        return measure;
+    }
+
+    /*p-value of correlation r under the kernel's measure, over all samples*/
+    public double pValue(double r) {
+        return measure.pValue(r, samples);
+    }
+
+    /*p-value of correlation r between genes i and j, over their shared samples*/
+    public double pValue(double r, int i, int j) {
+        return measure.pValue(r, sharedSamples(i, j));
+    }
+
+    /* Determines if gene i has a value in every sample */
+    public boolean isComplete(int i) {
+        return masks[i] == null;
+    }
+
+    /* Determines if gene i has a value in the given sample */
+    public boolean hasValue(int i, int sample) {
+        return masks[i] == null || (masks[i][sample >>> 6] & (1L << sample)) != 0;
+    }
+
+    /* Determines if the data set has any missing values */
+    public boolean hasMissing() {
+        return hasMissing;
+    }
+
+    /* Number of samples where both genes have a value */
+    public int sharedSamples(int i, int j) {
+        if (masks[i] == null && masks[j] == null) {
+            return samples;
+        }
+        long[] a = (masks[i] != null) ? masks[i] : fullMask;
+        long[] b = (masks[j] != null) ? masks[j] : fullMask;
+        int count = 0;
+        for (int w = 0; w < a.length; w++) {
+            count += Long.bitCount(a[w] & b[w]);
+        }
+        return count;
+    }
+
+    /* Copies the raw values of genes i and j at their shared samples into x and y
+     * (each at least samples() long) and returns how many there are */
+    public int pairValues(int i, int j, double[] x, double[] y) {
+        long[] a = (masks[i] != null) ? masks[i] : fullMask;
+        long[] b = (masks[j] != null) ? masks[j] : fullMask;
+        double[] ri = rows[i];
+        double[] rj = rows[j];
+        int m = 0;
+        for (int w = 0; w < a.length; w++) {
+            long bits = a[w] & b[w];
+            while (bits != 0) {
+                int k = (w << 6) + Long.numberOfTrailingZeros(bits);
+                x[m] = ri[k];
+                y[m] = rj[k];
+                m++;
+                bits &= bits - 1;
+            }
+        }
+        return m;
+    }
+
+    /*correlation over the shared samples only, re-preparing both genes on that subset*/
+    private double correlatePairwise(int i, int j) {
+        double[][] buffer = pairBuffer.get();
+        if (buffer == null) {
+            buffer = new double[2][samples];
+            pairBuffer.set(buffer);
+        }
+        int m = pairValues(i, j, buffer[0], buffer[1]);
+        if (m < 3) {
+            return Double.NaN;
+        }
+        double[] x = measure.prepare(Arrays.copyOf(buffer[0], m));
+        double[] y = measure.prepare(Arrays.copyOf(buffer[1], m));
+        return measure.correlate(x, y);
+    }
+
+    /*pairs that cannot use the prepared vectors*/
+    private boolean isIncompletePair(int i, int j) {
+        return masks[i] != null || masks[j] != null;
+    }
+
+    /*dot-product routines used for dot-product measures*/
+    public DotKernel dotKernel() {
+        return dotKernel;
+    }
+    /*switch between the scalar and vector kernels at runtime*/
+    public void setDotKernel(DotKernel dotKernel) {
+        this.dotKernel = dotKernel;
+    }
+
+    /*prepared vector of gene i; callers must not modify it. For a gene with missing
+     * values it is prepared over its valid samples and is zero elsewhere.*/
+    public double[] vector(int i) {
+        return vectors[i];
+    }
+
+    /* Correlation between genes i and j */
+    public double correlate(int i, int j) {
+        if (hasMissing && isIncompletePair(i, j)) {
+            return correlatePairwise(i, j);
+        }
+        if (!measure.isDotProduct()) {
+            return measure.correlate(vectors[i], vectors[j]);
+        }
+        return dotKernel.dot(vectors[i], vectors[j], samples);
+    }
+
+    /* Correlation between a prepared vector of length samples() and gene j, which must
+     * have no missing values */
+    public double correlate(double[] a, int j) {
+        if (!measure.isDotProduct()) {
+            return measure.correlate(a, vectors[j]);
+        }
+        return dotKernel.dot(a, vectors[j], samples);
+    }
+
+    /* Correlations between gene i and every gene, written to out[0..size()) */
+    public void row(int i, double[] out) {
+        double[] a = vectors[i];
+        int N = vectors.length;
+        if (!measure.isDotProduct()) {
+            for (int j = 0; j < N; j++) {
+                out[j] = measure.correlate(a, vectors[j]);
+            }
+        } else {
+            int j = 0;
+            for (; j + 4 <= N; j += 4) {
+                dotKernel.dot4(a, vectors[j], vectors[j + 1], vectors[j + 2], vectors[j + 3], samples, out, j);
+            }
+            for (; j < N; j++) {
+                out[j] = dotKernel.dot(a, vectors[j], samples);
+            }
+        }
+        if (hasMissing) {
+            for (int j = 0; j < N; j++) {
+                if (isIncompletePair(i, j)) {
+                    out[j] = correlatePairwise(i, j);
+                }
+            }
+        }
+    }
+
+    /* Correlations for rows [rowStart, rowEnd) x columns [colStart, colEnd), written
+     * row-major to out */
+    public void tile(int rowStart, int rowEnd, int colStart, int colEnd, double[] out) {
+        int width = colEnd - colStart;
+        for (int i = rowStart; i < rowEnd; i++) {
+            double[] a = vectors[i];
+            int base = (i - rowStart) * width;
+            if (!measure.isDotProduct()) {
+                for (int j = colStart; j < colEnd; j++) {
+                    out[base + j - colStart] = measure.correlate(a, vectors[j]);
+                }
+            } else {
+                int j = colStart;
+                for (; j + 4 <= colEnd; j += 4) {
+                    dotKernel.dot4(a, vectors[j], vectors[j + 1], vectors[j + 2], vectors[j + 3], samples, out, base + j - colStart);
+                }
+                for (; j < colEnd; j++) {
+                    out[base + j - colStart] = dotKernel.dot(a, vectors[j], samples);
+                }
+            }
+            if (hasMissing) {
+                for (int j = colStart; j < colEnd; j++) {
+                    if (isIncompletePair(i, j)) {
+                        out[base + j - colStart] = correlatePairwise(i, j);
+                    }
+                }
+            }
+        }
+    }
+
+    /* Correlations between gene i and genes cols[from..to), written to out[from..to) */
+    public void row(int i, int[] cols, int from, int to, double[] out) {
+        double[] a = vectors[i];
+        if (!measure.isDotProduct()) {
+            for (int c = from; c < to; c++) {
+                out[c] = measure.correlate(a, vectors[cols[c]]);
+            }
+        } else {
+            int c = from;
+            for (; c + 4 <= to; c += 4) {
+                dotKernel.dot4(a, vectors[cols[c]], vectors[cols[c + 1]], vectors[cols[c + 2]], vectors[cols[c + 3]], samples, out, c);
+            }
+            for (; c < to; c++) {
+                out[c] = dotKernel.dot(a, vectors[cols[c]], samples);
+            }
+        }
+        if (hasMissing) {
+            for (int c = from; c < to; c++) {
+                if (isIncompletePair(i, cols[c])) {
+                    out[c] = correlatePairwise(i, cols[c]);
+                }
+            }
+        }
+    }
+
+    /* Visits every tile of the upper triangle (including diagonal tiles) in parallel. Each
+     * call receives a row-major tile that is only valid for the duration of the call;
+     * diagonal tiles contain both (i, j) and (j, i). */
+    public void forEachTile(final int block, final TileVisitor visitor) {
+        final int N = vectors.length;
+        final int nb = (N + block - 1) / block;
+        final int[] tileRows = new int[nb * (nb + 1) / 2];
+        final int[] tileCols = new int[tileRows.length];
+        int t = 0;
+        for (int I = 0; I < nb; I++) {
+            for (int J = I; J < nb; J++) {
+                tileRows[t] = I;
+                tileCols[t] = J;
+                t++;
+            }
+        }
+        Parallel.forRange(0, tileRows.length, 1, new Parallel.Range() {
+            public void run(int from, int to) {
+                double[] buffer = tileBuffer(block * block);
+                for (int k = from; k < to; k++) {
+                    int rowStart = tileRows[k] * block;
+                    int rowEnd = Math.min(N, rowStart + block);
+                    int colStart = tileCols[k] * block;
+                    int colEnd = Math.min(N, colStart + block);
+                    tile(rowStart, rowEnd, colStart, colEnd, buffer);
+                    visitor.visit(rowStart, rowEnd, colStart, colEnd, buffer);
+                }
+            }
+        });
+    }
+
+    private double[] tileBuffer(int size) {
+        double[] buffer = tileBuffer.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new double[size];
+            tileBuffer.set(buffer);
+        }
+        return buffer;
+    }
+
+    /*scalar dot product for callers without a kernel instance*/
+    static double dot(double[] a, double[] b, int n) {
+        return DotKernel.scalar().dot(a, b, n);
+    }
+
+    /**
+     * Nested interface: TileVisitor
+     * Receives the correlations of one tile
+     **/
+    public static interface TileVisitor {
+        public void visit(int rowStart, int rowEnd, int colStart, int colEnd, double[] tile);
+    }
+}
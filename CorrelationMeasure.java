@@ -0,0 +1,296 @@
+/*import libraries*/
+import java.util.*;
+
+/* A correlation method that can run inside CorrelationKernel. Every gene is transformed
+ * once by prepare(); most measures then reduce to the dot product of the prepared
+ * vectors, the others evaluate each pair with correlate(). */
+public abstract class CorrelationMeasure {
+    public static final CorrelationMeasure PEARSON = new Pearson();
+    public static final CorrelationMeasure SPEARMAN = new Spearman();
+    public static final CorrelationMeasure KENDALL = new Kendall();
+    public static final CorrelationMeasure BICOR = new Bicor();
+
+    private static final CorrelationMeasure[] VALUES = {PEARSON, SPEARMAN, KENDALL, BICOR};
+
+    /* Name used to select the measure, e.g. "spearman" */
+    public abstract String name();
+
+    /* Transforms one gene's values into its working vector; x is not modified */
+    public abstract double[] prepare(double[] x);
+
+    /* Determines if the correlation is the dot product of the prepared vectors */
+    public boolean isDotProduct() {
+        return true;
+    }
+
+    /* Correlation of two prepared vectors */
+    public double correlate(double[] a, double[] b) {
+        return CorrelationKernel.dot(a, b, a.length);
+    }
+
+    /* Two-sided p-value of correlation r over n samples */
+    public double pValue(double r, int n) {
+        return Stats.tTestPValue(r, n - 2);
+    }
+
+    /* Variance of the Fisher z-transform atanh(r) over n samples */
+    public double fisherVariance(int n) {
+        return 1.0 / (n - 3);
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    /* All available measures */
+    public static CorrelationMeasure[] values() {
+        return VALUES.clone();
+    }
+
+    /* Looks up a measure by name, ignoring case */
+    public static CorrelationMeasure forName(String name) {
+        for (CorrelationMeasure measure : VALUES) {
+            if (measure.name().equalsIgnoreCase(name.trim())) {
+                return measure;
+            }
+        }
+        throw new IllegalArgumentException("Unknown correlation method: " + name);
+    }
+
+    /**
+     * Nested class: Pearson
+     * Product-moment correlation of the raw values
+     **/
+    private static class Pearson extends CorrelationMeasure {
+        public String name() {
+            return "pearson";
+        }
+        public double[] prepare(double[] x) {
+            return Stats.standardize(Arrays.copyOf(x, x.length));
+        }
+    }
+
+    /**
+     * Nested class: Spearman
+     * Pearson correlation of the ranks, as cor(x, y, method = 'spearman') in corrData.R
+     **/
+    private static class Spearman extends CorrelationMeasure {
+        public String name() {
+            return "spearman";
+        }
+        public double[] prepare(double[] x) {
+            return Stats.standardize(Stats.rank(x));
+        }
+        /*Fieller, Hartley and Pearson (1957)*/
+        public double fisherVariance(int n) {
+            return 1.06 / (n - 3);
+        }
+    }
+
+    /**
+     * Nested class: Bicor
+     * Biweight midcorrelation. Each gene is weighted once by its own median and median
+     * absolute deviation, after which the correlation is a dot product. Genes with a
+     * zero MAD fall back to Pearson, like WGCNA's pearsonFallback = "individual".
+     *
+     * Reference:
+     * Langfelder P, Horvath S. Fast R Functions for Robust Correlations and Hierarchical
+     * Clustering. J Stat Softw 46 (2012).
+     **/
+    private static class Bicor extends CorrelationMeasure {
+        public String name() {
+            return "bicor";
+        }
+        public double[] prepare(double[] x) {
+            int n = x.length;
+            double med = Stats.median(x);
+            double[] dev = new double[n];
+            for (int i = 0; i < n; i++) {
+                dev[i] = Math.abs(x[i] - med);
+            }
+            double mad = Stats.median(dev);
+            double[] v = new double[n];
+            if (mad == 0) {
+                System.arraycopy(x, 0, v, 0, n);
+                return Stats.standardize(v);
+            }
+            double ss = 0;
+            for (int i = 0; i < n; i++) {
+                double u = (x[i] - med) / (9 * mad);
+                double w = (Math.abs(u) < 1) ? (1 - u * u) * (1 - u * u) : 0;
+                v[i] = (x[i] - med) * w;
+                ss += v[i] * v[i];
+            }
+            double norm = Math.sqrt(ss);
+            for (int i = 0; i < n; i++) {
+                v[i] = (norm > 0) ? v[i] / norm : 0;
+            }
+            return v;
+        }
+    }
+
+    /**
+     * Nested class: Kendall
+     * Kendall's tau-b by Knight's O(n log n) algorithm. The prepared vector holds the
+     * average ranks, so the initial sort of a pair is two O(n) counting sorts on twice
+     * the rank; discordant pairs are then counted by a merge sort.
+     *
+     * Reference:
+     * Knight WR. A Computer Method for Calculating Kendall's Tau with Ungrouped Data.
+     * J Am Stat Assoc 61 (1966).
+     **/
+    private static class Kendall extends CorrelationMeasure {
+        /* per-thread scratch space */
+        private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>();
+
+        public String name() {
+            return "kendall";
+        }
+        public boolean isDotProduct() {
+            return false;
+        }
+        public double[] prepare(double[] x) {
+            return Stats.rank(x);
+        }
+        /*Fieller, Hartley and Pearson (1957)*/
+        public double fisherVariance(int n) {
+            return 0.437 / (n - 4);
+        }
+
+        public double correlate(double[] a, double[] b) {
+            int n = a.length;
+            Scratch s = scratch(n);
+            int[] ka = s.keyA, kb = s.keyB;
+            for (int i = 0; i < n; i++) {
+                ka[i] = (int) Math.round(2 * a[i]);
+                kb[i] = (int) Math.round(2 * b[i]);
+            }
+            //order by (a, b): stable counting sort on b, then on a
+            countingSort(kb, null, s.tmp, s.counts, n);
+            countingSort(ka, s.tmp, s.order, s.counts, n);
+
+            long n0 = (long) n * (n - 1) / 2;
+            long n1 = 0, n3 = 0;
+            int[] order = s.order;
+            int[] y = s.y;
+            int runA = 1, runAB = 1;
+            y[0] = kb[order[0]];
+            for (int i = 1; i < n; i++) {
+                y[i] = kb[order[i]];
+                if (ka[order[i]] == ka[order[i - 1]]) {
+                    runA++;
+                    if (y[i] == y[i - 1]) {
+                        runAB++;
+                    } else {
+                        n3 += (long) runAB * (runAB - 1) / 2;
+                        runAB = 1;
+                    }
+                } else {
+                    n1 += (long) runA * (runA - 1) / 2;
+                    n3 += (long) runAB * (runAB - 1) / 2;
+                    runA = 1;
+                    runAB = 1;
+                }
+            }
+            n1 += (long) runA * (runA - 1) / 2;
+            n3 += (long) runAB * (runAB - 1) / 2;
+
+            long swaps = mergeSort(y, s.merge, n);
+
+            //y is now sorted, so ties in b are runs
+            long n2 = 0;
+            int runB = 1;
+            for (int i = 1; i < n; i++) {
+                if (y[i] == y[i - 1]) {
+                    runB++;
+                } else {
+                    n2 += (long) runB * (runB - 1) / 2;
+                    runB = 1;
+                }
+            }
+            n2 += (long) runB * (runB - 1) / 2;
+
+            double denominator = Math.sqrt((double) (n0 - n1) * (double) (n0 - n2));
+            if (denominator == 0) {
+                return 0;
+            }
+            return (n0 - n1 - n2 + n3 - 2 * swaps) / denominator;
+        }
+
+        /* Normal approximation to the null distribution of tau */
+        public double pValue(double r, int n) {
+            double z = 3 * r * Math.sqrt((double) n * (n - 1)) / Math.sqrt(2.0 * (2 * n + 5));
+            return Stats.normalPValue(z);
+        }
+
+        /*stable counting sort of the indices in input (identity if null) by key*/
+        private static void countingSort(int[] key, int[] input, int[] output, int[] counts, int n) {
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i++) {
+                counts[key[i] + 1]++;
+            }
+            for (int k = 1; k < counts.length; k++) {
+                counts[k] += counts[k - 1];
+            }
+            for (int i = 0; i < n; i++) {
+                int index = (input == null) ? i : input[i];
+                output[counts[key[index]]++] = index;
+            }
+        }
+
+        /*bottom-up merge sort of y, returning the number of strictly inverted pairs*/
+        private static long mergeSort(int[] y, int[] buffer, int n) {
+            long swaps = 0;
+            int[] src = y, dst = buffer;
+            for (int width = 1; width < n; width *= 2) {
+                for (int lo = 0; lo < n; lo += 2 * width) {
+                    int mid = Math.min(lo + width, n);
+                    int hi = Math.min(lo + 2 * width, n);
+                    int i = lo, j = mid, k = lo;
+                    while (i < mid && j < hi) {
+                        if (src[i] <= src[j]) {
+                            dst[k++] = src[i++];
+                        } else {
+                            swaps += mid - i;
+                            dst[k++] = src[j++];
+                        }
+                    }
+                    while (i < mid) dst[k++] = src[i++];
+                    while (j < hi) dst[k++] = src[j++];
+                }
+                int[] tmp = src;
+                src = dst;
+                dst = tmp;
+            }
+            if (src != y) {
+                System.arraycopy(src, 0, y, 0, n);
+            }
+            return swaps;
+        }
+
+        private Scratch scratch(int n) {
+            Scratch s = scratch.get();
+            if (s == null || s.order.length < n) {
+                s = new Scratch(n);
+                scratch.set(s);
+            }
+            return s;
+        }
+
+        /*working arrays for one thread*/
+        private static class Scratch {
+            final int[] keyA, keyB, order, tmp, y, merge, counts;
+
+            Scratch(int n) {
+                keyA = new int[n];
+                keyB = new int[n];
+                order = new int[n];
+                tmp = new int[n];
+                y = new int[n];
+                merge = new int[n];
+                counts = new int[2 * n + 2];
+            }
+        }
+    }
+}
@@ -0,0 +1,761 @@
+/*import libraries*/
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Long-running correlation server. Loaded data sets (with their prepared kernels) stay in
+ * memory and are shared by every job that uses them, so repeat analyses skip JVM start-up
+ * and CSV parsing. Requests run on virtual threads when the JDK has them (21+), otherwise
+ * on a cached thread pool.
+ *
+ * The server only listens on the loopback interface, and since a web page can still send
+ * requests there, it also refuses requests whose Host is not a loopback name (DNS rebinding)
+ * or whose Origin is not a loopback origin (cross-site requests). Every endpoint except the
+ * read-only /genes, /edges, /progress and /query must be POSTed. Files are named relative
+ * to the data directory given at start-up, and paths that lead outside it are refused.
+ *
+ * Endpoints (parameters in the query string or a form-encoded POST body; plain-text replies):
+ *     /start     file, method            load a data set, or reuse it if already loaded
+ *     /genes     dataset, prefix, limit  gene names starting with prefix (autocompletion)
+ *     /correlate dataset, pval, tau      start a job; optional fdr, permutations, priority,
+ *                                        matrix (keep the matrix for export), recall
+ *                                        (correlate SimHash candidates only), prune
+ *                                        (skip pairs bounded below tau) and stream
+ *     /edges     job, from               stream edges (chunked) as the job finds them
+ *     /progress  job                     state, expanded genes and edges of a job
+ *     /query     job, genes              edges that touch any of the genes
+ *     /priority  job, genes, mode        set (default) or add priority genes of a running job
+ *     /export    job, kind, file         write edges, corr or pval to a file in the data directory
+ *     /stability job, replicates         bootstrap stability of a completed job's edges,
+ *                                        added as a fourth column to its edges and exports
+ *     /differential dataset, groupA,     pairs correlated differently in two groups of
+ *                groupB, pval, delta     samples, given as comma-separated sample names or
+ *                                        as regular expressions (patternA, patternB)
+ *     /meta      datasets, pval, tau,    edges pooled over several data sets (comma-separated
+ *                min                     ids, same method) by a Fisher-z meta-analysis, with
+ *                                        p, Q, I2 and the number of cohorts; genes must be in
+ *                                        at least min (default 2) data sets
+ *     /close     job                     forget a job
+ * Edges are written as tab-separated lines: first gene, second gene, correlation. */
+public class CorrelationServer {
+    public static final int DEFAULT_PORT = 8750;
+
+    /*instance variables*/
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final File root; //canonical data directory that files are resolved against
+    private final ConcurrentHashMap<String, Dataset> datasets = new ConcurrentHashMap<String, Dataset>();
+    private final ConcurrentHashMap<Integer, Dataset> datasetsById = new ConcurrentHashMap<Integer, Dataset>();
+    private final ConcurrentHashMap<Integer, Job> jobs = new ConcurrentHashMap<Integer, Job>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
+    /*constructors*/
+    public CorrelationServer(int port) throws IOException {
+        this(port, new File("."));
+    }
+
+    public CorrelationServer(int port, File root) throws IOException {
+        if (!root.isDirectory()) {
+            throw new IllegalArgumentException("Not a directory: " + root);
+        }
+        this.root = root.getCanonicalFile();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/start", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Dataset dataset = dataset(required(params, "file"), params.get("method"));
+                send(exchange, 200, String.format("dataset\t%d\ngenes\t%d\nsamples\t%d\nmethod\t%s\n",
+                        dataset.id, dataset.kernel.size(), dataset.kernel.samples(), dataset.kernel.measure()));
+            }
+        });
+        server.createContext("/genes", new Endpoint(false) {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Dataset dataset = datasetsById.get(parseInt(params, "dataset"));
+                if (dataset == null) {
+                    throw new RequestException(404, "Unknown dataset: " + params.get("dataset"));
+                }
+                dataset = loaded(dataset, Dataset.key(dataset.file, dataset.measure));
+                String prefix = params.containsKey("prefix") ? params.get("prefix") : "";
+                int limit = params.containsKey("limit") ? parseInt(params, "limit") : 20;
+                StringBuilder out = new StringBuilder();
+                for (int id : dataset.dictionary.prefix(prefix, limit)) {
+                    out.append(dataset.names[id]).append('\n');
+                }
+                send(exchange, 200, out.toString());
+            }
+        });
+        server.createContext("/differential", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Dataset dataset = datasetsById.get(parseInt(params, "dataset"));
+                if (dataset == null) {
+                    throw new RequestException(404, "Unknown dataset: " + params.get("dataset"));
+                }
+                dataset = loaded(dataset, Dataset.key(dataset.file, dataset.measure));
+                String[] groupA = dataset.samples(params, "groupA", "patternA");
+                String[] groupB = dataset.samples(params, "groupB", "patternB");
+                double pval = parseDouble(params, "pval");
+                double delta = params.containsKey("delta") ? parseDouble(params, "delta") : 0;
+                DifferentialCoexpression.Result result;
+                try {
+                    result = new DifferentialCoexpression(dataset.matrix, groupA, groupB, dataset.measure).run(pval, delta);
+                } catch (IllegalArgumentException e) {
+                    throw new RequestException(400, e.getMessage());
+                }
+                StringWriter out = new StringWriter();
+                result.write(out, '\t');
+                send(exchange, 200, out.toString());
+            }
+        });
+        server.createContext("/meta", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                String[] ids = required(params, "datasets").trim().split("\\s*,\\s*");
+                CorrelationKernel[] kernels = new CorrelationKernel[ids.length];
+                GeneDictionary[] dictionaries = new GeneDictionary[ids.length];
+                for (int k = 0; k < ids.length; k++) {
+                    Dataset dataset;
+                    try {
+                        dataset = datasetsById.get(Integer.parseInt(ids[k]));
+                    } catch (NumberFormatException e) {
+                        throw new RequestException(400, "Not a dataset id: " + ids[k]);
+                    }
+                    if (dataset == null) {
+                        throw new RequestException(404, "Unknown dataset: " + ids[k]);
+                    }
+                    dataset = loaded(dataset, Dataset.key(dataset.file, dataset.measure));
+                    kernels[k] = dataset.kernel;
+                    dictionaries[k] = dataset.dictionary;
+                }
+                double pval = parseDouble(params, "pval");
+                double tau = parseDouble(params, "tau");
+                int min = params.containsKey("min") ? parseInt(params, "min") : Math.min(2, ids.length);
+                Correlate.EdgeList edgeList;
+                try {
+                    edgeList = new MetaAnalysis(kernels, dictionaries, min).run(pval, tau);
+                } catch (IllegalArgumentException e) {
+                    throw new RequestException(400, e.getMessage());
+                }
+                float[][] columns = edgeList.columns();
+                StringBuilder out = new StringBuilder();
+                for (Correlate.EdgeList.Cursor cursor = edgeList.cursor(); cursor.next(); ) {
+                    out.append(cursor.firstName()).append('\t').append(cursor.secondName()).append('\t').append(cursor.value());
+                    for (float[] column : columns) {
+                        out.append('\t').append(column[cursor.index()]);
+                    }
+                    out.append('\n');
+                }
+                send(exchange, 200, out.toString());
+            }
+        });
+        server.createContext("/correlate", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = correlate(params);
+                if (Boolean.parseBoolean(params.get("stream"))) {
+                    streamEdges(exchange, job, 0);
+                } else {
+                    send(exchange, 200, "job\t" + job.id + "\n");
+                }
+            }
+        });
+        server.createContext("/edges", new Endpoint(false) {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = job(params);
+                int from = params.containsKey("from") ? parseInt(params, "from") : 0;
+                streamEdges(exchange, job, from);
+            }
+        });
+        server.createContext("/progress", new Endpoint(false) {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = job(params);
+                send(exchange, 200, String.format("state\t%s\nexpanded\t%d\ngenes\t%d\nedges\t%d\npriorityCompleted\t%d\n",
+                        job.state, job.engine.expanded(), job.dataset.kernel.size(), job.E(), job.priorityCompleted.get()));
+            }
+        });
+        server.createContext("/query", new Endpoint(false) {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = job(params);
+                boolean[] selected = new boolean[job.dataset.kernel.size()];
+                for (int gene : job.dataset.geneIndices(required(params, "genes"))) {
+                    selected[gene] = true;
+                }
+                StringBuilder out = new StringBuilder();
+                synchronized (job) {
+                    for (int i = 0; i < job.E; i++) {
+                        if (selected[job.first[i]] || selected[job.second[i]]) {
+                            job.appendEdge(out, i);
+                        }
+                    }
+                }
+                send(exchange, 200, out.toString());
+            }
+        });
+        server.createContext("/priority", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = job(params);
+                int[] genes = job.dataset.geneIndices(required(params, "genes"));
+                if ("add".equals(params.get("mode"))) {
+                    job.engine.addPriorityGenes(genes);
+                } else {
+                    job.engine.setPriorityGenes(genes);
+                }
+                send(exchange, 200, "priority\t" + genes.length + "\n");
+            }
+        });
+        server.createContext("/export", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = job(params);
+                String kind = required(params, "kind");
+                File file = resolve(required(params, "file"));
+                if (!job.state.equals(Job.COMPLETED)) {
+                    throw new RequestException(409, "Job " + job.id + " is " + job.state);
+                }
+                boolean success;
+                if (kind.equals("edges")) {
+                    success = job.writeEdges(file.getPath());
+                } else if (kind.equals("corr") || kind.equals("pval")) {
+                    if (job.engine.corrVec() == null) {
+                        throw new RequestException(409, "Job " + job.id + " was started without matrix=true");
+                    }
+                    success = Correlate.writeMatrix(file.getPath(), job.dataset.names, job.engine.corrVec(), job.dataset.kernel, kind.equals("pval"));
+                } else {
+                    throw new RequestException(400, "Unknown kind: " + kind);
+                }
+                if (!success) {
+                    throw new RequestException(500, "Could not write " + file);
+                }
+                send(exchange, 200, "exported\t" + file + "\n");
+            }
+        });
+        server.createContext("/stability", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = job(params);
+                int replicates = params.containsKey("replicates") ? parseInt(params, "replicates") : BootstrapStability.DEFAULT_REPLICATES;
+                if (!job.state.equals(Job.COMPLETED)) {
+                    throw new RequestException(409, "Job " + job.id + " is " + job.state);
+                }
+                StringBuilder out = new StringBuilder();
+                synchronized (job) {
+                    try {
+                        BootstrapStability bootstrap = new BootstrapStability(job.dataset.kernel, job.engine.pval(), job.engine.tau());
+                        job.stability = bootstrap.stability(Arrays.copyOf(job.first, job.E), Arrays.copyOf(job.second, job.E), replicates);
+                    } catch (IllegalArgumentException e) {
+                        throw new RequestException(400, e.getMessage());
+                    }
+                    for (int i = 0; i < job.E; i++) {
+                        job.appendEdge(out, i);
+                    }
+                }
+                send(exchange, 200, out.toString());
+            }
+        });
+        server.createContext("/close", new Endpoint() {
+            void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException {
+                Job job = job(params);
+                jobs.remove(job.id);
+                send(exchange, 200, "closed\t" + job.id + "\n");
+            }
+        });
+    }
+
+    /*virtual threads on JDK 21+, looked up reflectively so that older JDKs still run the server*/
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /* The canonical file that path names in the data directory, relative paths being
+     * resolved against it; paths that lead outside it (by .. or links) are refused */
+    private File resolve(String path) throws RequestException {
+        File file = new File(path);
+        try {
+            file = (file.isAbsolute() ? file : new File(root, path)).getCanonicalFile();
+        } catch (IOException e) {
+            throw new RequestException(400, "Invalid path: " + path);
+        }
+        for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(root)) {
+                return file;
+            }
+        }
+        throw new RequestException(403, "Outside the data directory: " + path);
+    }
+
+    /* Loaded data set for file and method, loading it on first use */
+    private Dataset dataset(String file, String method) throws RequestException {
+        CorrelationMeasure measure;
+        try {
+            measure = (method != null) ? CorrelationMeasure.forName(method) : CorrelationMeasure.SPEARMAN;
+        } catch (IllegalArgumentException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+        File path = resolve(file);
+        String key = Dataset.key(path, measure);
+        Dataset dataset = datasets.get(key);
+        if (dataset == null) {
+            Dataset created = new Dataset(nextId.getAndIncrement(), path, measure);
+            dataset = datasets.putIfAbsent(key, created);
+            if (dataset == null) {
+                dataset = created;
+                datasetsById.put(created.id, created);
+            }
+        }
+        return loaded(dataset, key);
+    }
+
+    private Dataset loaded(Dataset dataset, String key) throws RequestException {
+        try {
+            dataset.load();
+        } catch (IOException e) {
+            datasets.remove(key, dataset);
+            datasetsById.remove(dataset.id, dataset);
+            throw new RequestException(400, e.toString());
+        }
+        return dataset;
+    }
+
+    /*starts a job on the engine's own thread and returns it*/
+    private Job correlate(Map<String, String> params) throws RequestException {
+        Dataset dataset;
+        if (params.containsKey("dataset")) {
+            dataset = datasetsById.get(parseInt(params, "dataset"));
+            if (dataset == null) {
+                throw new RequestException(404, "Unknown dataset: " + params.get("dataset"));
+            }
+            dataset = loaded(dataset, Dataset.key(dataset.file, dataset.measure));
+        } else {
+            dataset = dataset(required(params, "file"), params.get("method"));
+        }
+        double pval = parseDouble(params, "pval");
+        double tau = parseDouble(params, "tau");
+        CorrelationEngine engine = new CorrelationEngine(dataset.kernel, pval, tau);
+        try {
+            if (Boolean.parseBoolean(params.get("fdr"))) {
+                engine.setFdr(pval);
+            }
+            if (params.containsKey("permutations")) {
+                engine.setPermutationTest(parseInt(params, "permutations"));
+            }
+            if (Boolean.parseBoolean(params.get("matrix"))) {
+                engine.retainMatrix();
+            }
+            if (params.containsKey("recall")) {
+                engine.setCandidateFilter(dataset.candidates(tau, parseDouble(params, "recall")));
+            }
+            if (Boolean.parseBoolean(params.get("prune"))) {
+                engine.setPivotPruning(dataset.pruning(tau));
+            }
+        } catch (RuntimeException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+        if (params.containsKey("priority")) {
+            engine.setPriorityGenes(dataset.geneIndices(params.get("priority")));
+        }
+        final Job job = new Job(nextId.getAndIncrement(), dataset, engine);
+        jobs.put(job.id, job);
+        executor.execute(new Runnable() {
+            public void run() {
+                job.run();
+            }
+        });
+        return job;
+    }
+
+    private Job job(Map<String, String> params) throws RequestException {
+        Job job = jobs.get(parseInt(params, "job"));
+        if (job == null) {
+            throw new RequestException(404, "Unknown job: " + params.get("job"));
+        }
+        return job;
+    }
+
+    /*writes the job's edges from index from onwards as they arrive, until the job ends*/
+    private static void streamEdges(HttpExchange exchange, Job job, int from) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/tab-separated-values; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0); //chunked
+        Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+        StringBuilder out = new StringBuilder();
+        try {
+            while (true) {
+                int to = job.awaitEdges(from);
+                if (to <= from) {
+                    break;
+                }
+                out.setLength(0);
+                synchronized (job) {
+                    for (int i = from; i < to; i++) {
+                        job.appendEdge(out, i);
+                    }
+                }
+                writer.write(out.toString());
+                writer.flush();
+                from = to;
+            }
+            writer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, (bytes.length > 0) ? bytes.length : -1);
+        if (bytes.length > 0) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+            out.close();
+        }
+    }
+
+    /*parameters of the query string and of a form-encoded body*/
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<String, String>();
+        parse(exchange.getRequestURI().getRawQuery(), params);
+        if (exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                body.write(buffer, 0, read);
+            }
+            parse(new String(body.toByteArray(), StandardCharsets.UTF_8), params);
+        }
+        return params;
+    }
+
+    private static void parse(String query, Map<String, String> params) throws UnsupportedEncodingException {
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = (eq >= 0) ? pair.substring(0, eq) : pair;
+            String value = (eq >= 0) ? pair.substring(eq + 1) : "true";
+            params.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+    }
+
+    private static String required(Map<String, String> params, String key) throws RequestException {
+        String value = params.get(key);
+        if (value == null || value.isEmpty()) {
+            throw new RequestException(400, "Missing parameter: " + key);
+        }
+        return value;
+    }
+
+    private static int parseInt(Map<String, String> params, String key) throws RequestException {
+        try {
+            return Integer.parseInt(required(params, key));
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Not an integer: " + key);
+        }
+    }
+
+    private static double parseDouble(Map<String, String> params, String key) throws RequestException {
+        try {
+            return Double.parseDouble(required(params, key));
+        } catch (NumberFormatException e) {
+            throw new RequestException(400, "Not a number: " + key);
+        }
+    }
+
+    /* Runs a server until the process is killed: java CorrelationServer [port [directory]],
+     * the data directory being the working directory by default */
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        File root = new File((args.length > 1) ? args[1] : ".");
+        final CorrelationServer server = new CorrelationServer(port, root);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                server.stop();
+            }
+        });
+        server.start();
+        System.out.println("Correlation server listening on http://127.0.0.1:" + server.port() + ", data directory "
+                + server.root);
+    }
+
+    /**
+     * Nested class: Endpoint
+     * Checks the method, Host and Origin of a request, parses the parameters and turns
+     * RequestExceptions into error replies
+     **/
+    private abstract static class Endpoint implements HttpHandler {
+        private static final String[] LOOPBACK_NAMES = {"127.0.0.1", "localhost", "[::1]"};
+        private final boolean isPostOnly;
+
+        Endpoint() {
+            this(true);
+        }
+
+        Endpoint(boolean isPostOnly) {
+            this.isPostOnly = isPostOnly;
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                String method = exchange.getRequestMethod();
+                if (!method.equals("POST") && (isPostOnly || !method.equals("GET"))) {
+                    exchange.getResponseHeaders().set("Allow", isPostOnly ? "POST" : "GET, POST");
+                    throw new RequestException(405, "Method not allowed: " + method);
+                }
+                int port = exchange.getLocalAddress().getPort();
+                String host = exchange.getRequestHeaders().getFirst("Host");
+                if (host == null || !isLoopback(host, port)) {
+                    throw new RequestException(403, "Host not allowed: " + host);
+                }
+                String origin = exchange.getRequestHeaders().getFirst("Origin");
+                if (origin != null && !(origin.startsWith("http://") && isLoopback(origin.substring(7), port))) {
+                    throw new RequestException(403, "Origin not allowed: " + origin);
+                }
+                serve(exchange, parameters(exchange));
+            } catch (RequestException e) {
+                send(exchange, e.status, e.getMessage() + "\n");
+            } catch (RuntimeException e) {
+                send(exchange, 500, e + "\n");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /*determines if host (name and optional port) names this server on the loopback interface*/
+        private static boolean isLoopback(String host, int port) {
+            for (String name : LOOPBACK_NAMES) {
+                if (host.equalsIgnoreCase(name) || host.equalsIgnoreCase(name + ":" + port)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        abstract void serve(HttpExchange exchange, Map<String, String> params) throws IOException, RequestException;
+    }
+
+    /**
+     * Nested class: RequestException
+     * A request that cannot be served, with the HTTP status to reply with
+     **/
+    private static class RequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Nested class: Dataset
+     * An aggregated data set and its kernel for one correlation measure
+     **/
+    private static class Dataset {
+        final int id;
+        final File file;
+        final CorrelationMeasure measure;
+        volatile CorrelationKernel kernel;
+        ExpressionMatrix matrix;
+        String[] names;
+        GeneDictionary dictionary;
+        //candidate filters by tau and recall, and pruning bounds by tau, kept like the
+        //kernel for repeat jobs
+        private final HashMap<String, SimHashFilter> filters = new HashMap<String, SimHashFilter>();
+        private final HashMap<Double, PivotPruning> prunings = new HashMap<Double, PivotPruning>();
+
+        Dataset(int id, File file, CorrelationMeasure measure) {
+            this.id = id;
+            this.file = file;
+            this.measure = measure;
+        }
+
+        static String key(File file, CorrelationMeasure measure) {
+            return file.getPath() + "|" + measure;
+        }
+
+        /*loads the data set once; concurrent callers wait for the first load*/
+        synchronized void load() throws IOException {
+            if (kernel != null) {
+                return;
+            }
+            matrix = ExpressionMatrix.load(file);
+            names = matrix.geneNames();
+            dictionary = new GeneDictionary(names);
+            kernel = new CorrelationKernel(matrix, measure);
+        }
+
+        /*indices of the known genes of a comma-separated list, ignoring case*/
+        int[] geneIndices(String list) {
+            return dictionary.ids(list.trim().split("\\s*,\\s*"));
+        }
+
+        /*the samples of a group, by names or by a regular expression*/
+        String[] samples(Map<String, String> params, String namesKey, String patternKey) throws RequestException {
+            if (params.containsKey(namesKey)) {
+                return params.get(namesKey).trim().split("\\s*,\\s*");
+            }
+            if (params.containsKey(patternKey)) {
+                return matrix.samplesMatching(params.get(patternKey));
+            }
+            throw new RequestException(400, "Missing parameter: " + namesKey + " or " + patternKey);
+        }
+
+        /*the SimHash candidates for tau and recall, built on first use*/
+        synchronized SimHashFilter candidates(double tau, double recall) {
+            String key = tau + "|" + recall;
+            SimHashFilter filter = filters.get(key);
+            if (filter == null) {
+                filter = new SimHashFilter(kernel, tau, recall);
+                filters.put(key, filter);
+            }
+            return filter;
+        }
+
+        /*the pivot bounds for tau, built on first use*/
+        synchronized PivotPruning pruning(double tau) {
+            PivotPruning pruning = prunings.get(tau);
+            if (pruning == null) {
+                pruning = new PivotPruning(kernel, tau);
+                prunings.put(tau, pruning);
+            }
+            return pruning;
+        }
+    }
+
+    /**
+     * Nested class: Job
+     * One run of the engine; edges are copied out as they are found so that they can be
+     * read while the engine is still running
+     **/
+    private static class Job implements CorrelationEngine.Observer {
+        static final String RUNNING = "running";
+        static final String COMPLETED = "completed";
+        static final String FAILED = "failed";
+
+        final int id;
+        final Dataset dataset;
+        final CorrelationEngine engine;
+        final AtomicInteger priorityCompleted = new AtomicInteger();
+        volatile String state = RUNNING;
+
+        //edges found so far, guarded by this
+        int[] first = new int[1024];
+        int[] second = new int[1024];
+        float[] values = new float[1024];
+        int E;
+        float[] stability; //of the first stability.length edges, once computed
+
+        Job(int id, Dataset dataset, CorrelationEngine engine) {
+            this.id = id;
+            this.dataset = dataset;
+            this.engine = engine;
+        }
+
+        /*runs the engine; the job ends as failed on any exception or error (out of memory,
+         * say), so that clients waiting in awaitEdges are always woken*/
+        void run() {
+            try {
+                engine.run(this);
+                state = COMPLETED;
+            } catch (RuntimeException e) {
+                System.out.println(e);
+            } finally {
+                synchronized (this) {
+                    if (state.equals(RUNNING)) {
+                        state = FAILED;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        public synchronized void onEdges(int[] first, int[] second, float[] values, int from, int to) {
+            int count = to - from;
+            if (E + count > this.first.length) {
+                int capacity = Math.max(2 * this.first.length, E + count);
+                this.first = Arrays.copyOf(this.first, capacity);
+                this.second = Arrays.copyOf(this.second, capacity);
+                this.values = Arrays.copyOf(this.values, capacity);
+            }
+            System.arraycopy(first, from, this.first, E, count);
+            System.arraycopy(second, from, this.second, E, count);
+            System.arraycopy(values, from, this.values, E, count);
+            E += count;
+            notifyAll();
+        }
+
+        public void onPriorityCompleted(int gene) {
+            priorityCompleted.incrementAndGet();
+        }
+
+        synchronized int E() {
+            return E;
+        }
+
+        /*waits until there are more than from edges or the job has ended; returns E*/
+        synchronized int awaitEdges(int from) throws InterruptedException {
+            while (E <= from && state.equals(RUNNING)) {
+                wait();
+            }
+            return E;
+        }
+
+        /*edge i as a tab-separated line of gene names and correlation, and its stability
+         * if known; hold the lock*/
+        void appendEdge(StringBuilder out, int i) {
+            out.append(dataset.names[first[i]]).append('\t')
+                .append(dataset.names[second[i]]).append('\t')
+                .append(values[i]);
+            if (stability != null && i < stability.length) {
+                out.append('\t').append(stability[i]);
+            }
+            out.append('\n');
+        }
+
+        /*edges in the format of Correlate.outEdgeList()*/
+        synchronized boolean writeEdges(String file) {
+            try {
+                PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+                for (int i = 0; i < E; i++) {
+                    writer.println(dataset.names[first[i]] + "," + dataset.names[second[i]] + "," + values[i]
+                            + ((stability != null) ? "," + stability[i] : ""));
+                }
+                writer.close();
+                return !writer.checkError();
+            } catch (IOException e) {
+                System.out.println(e);
+                return false;
+            }
+        }
+    }
+}
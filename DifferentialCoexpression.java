@@ -0,0 +1,237 @@
+/*import libraries*/
+import java.io.*;
+import java.util.*;
+
+/* Differential co-expression between two groups of samples of the same data set, such as
+ * tumour and normal columns. Both groups are views of one ExpressionMatrix, so nothing is
+ * copied but the prepared vectors, and their correlations are computed in one pass over
+ * the tiles of the upper triangle: every tile is correlated in group A and in group B
+ * while its genes are in cache, and the pairs are tested right away. The dot products of
+ * the two groups together are as long as those of one run over all samples.
+ *
+ * A pair is reported when the difference of the Fisher z-transforms,
+ *     z = (atanh(rA) - atanh(rB)) / sqrt(var(nA) + var(nB)),
+ * has a two-sided normal p-value of at most pval and |rA - rB| >= minDelta. var(n) is the
+ * variance of atanh(r) under the measure (see CorrelationMeasure.fisherVariance()); with
+ * missing values n is the number of samples the pair shares in each group. */
+public class DifferentialCoexpression {
+    public static final int BLOCK = CorrelationKernel.DEFAULT_BLOCK;
+    private static final double MAX_R = 1 - 1e-12; //keeps atanh finite
+
+    /*instance variables*/
+    private final CorrelationKernel a;
+    private final CorrelationKernel b;
+    private final String[] names;
+
+    /* per-thread tile buffers */
+    private final ThreadLocal<double[][]> tileBuffers = new ThreadLocal<double[][]>();
+
+    /*constructors*/
+    public DifferentialCoexpression(ExpressionMatrix matrix, String[] samplesA, String[] samplesB, CorrelationMeasure measure) {
+        this(new CorrelationKernel(matrix.samples(samplesA), measure), new CorrelationKernel(matrix.samples(samplesB), measure),
+                matrix.geneNames());
+    }
+
+    public DifferentialCoexpression(CorrelationKernel a, CorrelationKernel b, String[] names) {
+        if (a.size() != b.size() || a.size() != names.length) {
+            throw new IllegalArgumentException("Both groups must have the same genes");
+        }
+        if (a.measure() != b.measure()) {
+            throw new IllegalArgumentException("Both groups must use the same correlation measure");
+        }
+        if (a.samples() < 5 || b.samples() < 5) {
+            throw new IllegalArgumentException("Each group needs at least 5 samples");
+        }
+        this.a = a;
+        this.b = b;
+        this.names = names;
+    }
+
+    /* Tests every pair of genes; see the class comment */
+    public Result run(final double pval, final double minDelta) {
+        final int N = a.size();
+        final int nb = (N + BLOCK - 1) / BLOCK;
+        final int[] tileRows = new int[nb * (nb + 1) / 2];
+        final int[] tileCols = new int[tileRows.length];
+        int t = 0;
+        for (int I = 0; I < nb; I++) {
+            for (int J = I; J < nb; J++) {
+                tileRows[t] = I;
+                tileCols[t] = J;
+                t++;
+            }
+        }
+        final Result[] parts = new Result[tileRows.length];
+        Parallel.forRange(0, tileRows.length, 1, new Parallel.Range() {
+            public void run(int from, int to) {
+                double[][] buffers = tileBuffers();
+                for (int k = from; k < to; k++) {
+                    int rowStart = tileRows[k] * BLOCK;
+                    int rowEnd = Math.min(N, rowStart + BLOCK);
+                    int colStart = tileCols[k] * BLOCK;
+                    int colEnd = Math.min(N, colStart + BLOCK);
+                    a.tile(rowStart, rowEnd, colStart, colEnd, buffers[0]);
+                    b.tile(rowStart, rowEnd, colStart, colEnd, buffers[1]);
+                    parts[k] = test(rowStart, rowEnd, colStart, colEnd, buffers[0], buffers[1], pval, minDelta);
+                }
+            }
+        });
+        Result result = new Result(names, 0);
+        for (Result part : parts) {
+            if (part != null) {
+                result.addAll(part);
+            }
+        }
+        return result;
+    }
+
+    /*the differential pairs i < j of one tile, or null if there are none*/
+    private Result test(int rowStart, int rowEnd, int colStart, int colEnd, double[] tileA, double[] tileB, double pval, double minDelta) {
+        CorrelationMeasure measure = a.measure();
+        int width = colEnd - colStart;
+        Result part = null;
+        for (int i = rowStart; i < rowEnd; i++) {
+            int base = (i - rowStart) * width;
+            for (int j = Math.max(colStart, i + 1); j < colEnd; j++) {
+                double rA = tileA[base + j - colStart];
+                double rB = tileB[base + j - colStart];
+                if (Double.isNaN(rA) || Double.isNaN(rB) || Math.abs(rA - rB) < minDelta) {
+                    continue;
+                }
+                int nA = a.hasMissing() ? a.sharedSamples(i, j) : a.samples();
+                int nB = b.hasMissing() ? b.sharedSamples(i, j) : b.samples();
+                if (nA < 5 || nB < 5) {
+                    continue;
+                }
+                double z = (atanh(rA) - atanh(rB)) / Math.sqrt(measure.fisherVariance(nA) + measure.fisherVariance(nB));
+                double p = Stats.normalPValue(z);
+                if (p <= pval) {
+                    if (part == null) {
+                        part = new Result(names, 16);
+                    }
+                    part.add(i, j, (float) rA, (float) rB, z, p);
+                }
+            }
+        }
+        return part;
+    }
+
+    private static double atanh(double r) {
+        r = Math.max(-MAX_R, Math.min(MAX_R, r));
+        return 0.5 * Math.log((1 + r) / (1 - r));
+    }
+
+    private double[][] tileBuffers() {
+        double[][] buffers = tileBuffers.get();
+        if (buffers == null) {
+            buffers = new double[][] {new double[BLOCK * BLOCK], new double[BLOCK * BLOCK]};
+            tileBuffers.set(buffers);
+        }
+        return buffers;
+    }
+
+    /*access methods*/
+    public CorrelationKernel groupA() {
+        return a;
+    }
+    public CorrelationKernel groupB() {
+        return b;
+    }
+
+    /**
+     * Nested class: Result
+     * The differential pairs as parallel arrays, with 0-based gene ids: the correlation in
+     * each group, the z statistic of their difference and its p-value
+     **/
+    public static class Result {
+        private final String[] names;
+        private int[] first;
+        private int[] second;
+        private float[] rA;
+        private float[] rB;
+        private double[] z;
+        private double[] p;
+        private int E;
+
+        Result(String[] names, int capacity) {
+            this.names = names;
+            first = new int[capacity];
+            second = new int[capacity];
+            rA = new float[capacity];
+            rB = new float[capacity];
+            z = new double[capacity];
+            p = new double[capacity];
+        }
+
+        void add(int i, int j, float valueA, float valueB, double zValue, double pValue) {
+            ensureCapacity(E + 1);
+            first[E] = i;
+            second[E] = j;
+            rA[E] = valueA;
+            rB[E] = valueB;
+            z[E] = zValue;
+            p[E] = pValue;
+            E++;
+        }
+
+        void addAll(Result other) {
+            ensureCapacity(E + other.E);
+            System.arraycopy(other.first, 0, first, E, other.E);
+            System.arraycopy(other.second, 0, second, E, other.E);
+            System.arraycopy(other.rA, 0, rA, E, other.E);
+            System.arraycopy(other.rB, 0, rB, E, other.E);
+            System.arraycopy(other.z, 0, z, E, other.E);
+            System.arraycopy(other.p, 0, p, E, other.E);
+            E += other.E;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > first.length) {
+                capacity = Math.max(capacity, 2 * first.length);
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+                rA = Arrays.copyOf(rA, capacity);
+                rB = Arrays.copyOf(rB, capacity);
+                z = Arrays.copyOf(z, capacity);
+                p = Arrays.copyOf(p, capacity);
+            }
+        }
+
+        /*access methods*/
+        public int E() {
+            return E;
+        }
+        public int first(int i) {
+            return first[i];
+        }
+        public int second(int i) {
+            return second[i];
+        }
+        public String firstName(int i) {
+            return names[first[i]];
+        }
+        public String secondName(int i) {
+            return names[second[i]];
+        }
+        public float rA(int i) {
+            return rA[i];
+        }
+        public float rB(int i) {
+            return rB[i];
+        }
+        public double z(int i) {
+            return z[i];
+        }
+        public double p(int i) {
+            return p[i];
+        }
+
+        /* Writes one line per pair: first gene, second gene, rA, rB, z, p */
+        public void write(Writer out, char separator) throws IOException {
+            for (int i = 0; i < E; i++) {
+                out.write(names[first[i]] + separator + names[second[i]] + separator + rA[i] + separator + rB[i]
+                        + separator + z[i] + separator + p[i] + "\n");
+            }
+        }
+    }
+}
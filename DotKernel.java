@@ -0,0 +1,115 @@
+/* Dot-product routines used by CorrelationKernel for measures whose correlation is a
+ * dot product. The scalar kernel always works; the vector kernel (VectorDotKernel) uses
+ * the incubating JDK Vector API and is only available when the jdk.incubator.vector
+ * module was added at compile and run time (--add-modules jdk.incubator.vector).
+ *
+ * The kernel is picked with the system property gene.kernel:
+ *     auto (default)  vector kernel if available, otherwise scalar
+ *     vector          vector kernel, falling back to scalar with a warning
+ *     scalar          scalar kernel */
+public abstract class DotKernel {
+    public static final String PROPERTY = "gene.kernel";
+    private static final String VECTOR_CLASS = "VectorDotKernel";
+
+    private static final DotKernel SCALAR = new Scalar();
+    private static DotKernel vector;
+    private static boolean isVectorLoaded;
+    private static DotKernel defaultKernel;
+
+    /* Name of the kernel, "scalar" or "vector" */
+    public abstract String name();
+
+    /* Dot product of a[0..n) and b[0..n) */
+    public abstract double dot(double[] a, double[] b, int n);
+
+    /* Dot products of a with b0..b3, written to out[offset..offset+4). Computing four at
+     * once lets every load of a be reused from a register. */
+    public abstract void dot4(double[] a, double[] b0, double[] b1, double[] b2, double[] b3, int n, double[] out, int offset);
+
+    @Override
+    public String toString() {
+        return name();
+    }
+
+    /* The portable scalar kernel */
+    public static DotKernel scalar() {
+        return SCALAR;
+    }
+
+    /* The Vector API kernel, or null if the module is missing */
+    public static synchronized DotKernel vector() {
+        if (!isVectorLoaded) {
+            isVectorLoaded = true;
+            try {
+                vector = (DotKernel) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                vector = null;
+            } catch (LinkageError e) {
+                //jdk.incubator.vector is not in the module graph
+                vector = null;
+            }
+        }
+        return vector;
+    }
+
+    /* Kernel for a name as accepted by gene.kernel */
+    public static DotKernel forName(String name) {
+        if (name == null || name.equalsIgnoreCase("auto")) {
+            DotKernel v = vector();
+            return (v != null) ? v : SCALAR;
+        }
+        if (name.equalsIgnoreCase("scalar")) {
+            return SCALAR;
+        }
+        if (name.equalsIgnoreCase("vector")) {
+            DotKernel v = vector();
+            if (v == null) {
+                System.out.println("Vector API is unavailable (run with --add-modules jdk.incubator.vector); using scalar kernel");
+                return SCALAR;
+            }
+            return v;
+        }
+        throw new IllegalArgumentException("Unknown kernel: " + name);
+    }
+
+    /* Kernel selected by the gene.kernel system property */
+    public static synchronized DotKernel getDefault() {
+        if (defaultKernel == null) {
+            defaultKernel = forName(System.getProperty(PROPERTY));
+        }
+        return defaultKernel;
+    }
+
+    /**
+     * Nested class: Scalar
+     * Plain loops; the JIT may auto-vectorize dot() but not the four-way reduction
+     **/
+    private static class Scalar extends DotKernel {
+        public String name() {
+            return "scalar";
+        }
+
+        public double dot(double[] a, double[] b, int n) {
+            double s = 0;
+            for (int k = 0; k < n; k++) {
+                s += a[k] * b[k];
+            }
+            return s;
+        }
+
+        public void dot4(double[] a, double[] b0, double[] b1, double[] b2, double[] b3, int n, double[] out, int offset) {
+            double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+            for (int k = 0; k < n; k++) {
+                double x = a[k];
+                s0 += x * b0[k];
+                s1 += x * b1[k];
+                s2 += x * b2[k];
+                s3 += x * b3[k];
+            }
+            out[offset] = s0;
+            out[offset + 1] = s1;
+            out[offset + 2] = s2;
+            out[offset + 3] = s3;
+        }
+    }
+}
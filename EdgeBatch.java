@@ -0,0 +1,83 @@
+/* A batch of edges as primitive parallel arrays, as published by EdgePublisher. Gene ids
+ * are 0-based indices into names(). A batch may also mark the point at which a priority
+ * gene was completed; such a marker carries no edges of its own. Batches are never
+ * modified once published. */
+public final class EdgeBatch {
+    /*instance variables*/
+    private final int[] first;
+    private final int[] second;
+    private final float[] values;
+    private final String[] names;
+    private final boolean isPriorityCompleted;
+    private final int priorityGene;
+
+    /*constructor*/
+    public EdgeBatch(int[] first, int[] second, float[] values, String[] names) {
+        this(first, second, values, names, false, -1);
+    }
+
+    private EdgeBatch(int[] first, int[] second, float[] values, String[] names, boolean isPriorityCompleted, int priorityGene) {
+        if (first.length != values.length || second.length != values.length) {
+            throw new IllegalArgumentException("Parallel arrays differ in length");
+        }
+        this.first = first;
+        this.second = second;
+        this.values = values;
+        this.names = names;
+        this.isPriorityCompleted = isPriorityCompleted;
+        this.priorityGene = priorityGene;
+    }
+
+    /* Marker for a completed priority gene (-1 if the gene is not known) */
+    public static EdgeBatch priorityCompleted(int gene, String[] names) {
+        return new EdgeBatch(new int[0], new int[0], new float[0], names, true, gene);
+    }
+
+    /* Rebuilds a batch read back from a spill file */
+    static EdgeBatch restore(int[] first, int[] second, float[] values, String[] names, boolean isPriorityCompleted, int priorityGene) {
+        return new EdgeBatch(first, second, values, names, isPriorityCompleted, priorityGene);
+    }
+
+    /*access methods*/
+    public int size() {
+        return values.length;
+    }
+    public int first(int i) {
+        return first[i];
+    }
+    public int second(int i) {
+        return second[i];
+    }
+    public float value(int i) {
+        return values[i];
+    }
+    public String firstName(int i) {
+        return names[first[i]];
+    }
+    public String secondName(int i) {
+        return names[second[i]];
+    }
+    public String[] names() {
+        return names;
+    }
+    /*the arrays themselves; callers must not modify them*/
+    int[] firstArray() {
+        return first;
+    }
+    int[] secondArray() {
+        return second;
+    }
+    float[] valueArray() {
+        return values;
+    }
+
+    /* Determines if this batch marks a completed priority gene */
+    public boolean isPriorityCompleted() {
+        return isPriorityCompleted;
+    }
+
+    /* The completed priority gene, or -1 */
+    public int priorityGene() {
+        return priorityGene;
+    }
+}
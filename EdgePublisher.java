@@ -0,0 +1,385 @@
+/*import libraries*/
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* Publishes the edges of a correlation run as a java.util.concurrent.Flow of EdgeBatches.
+ * Every subscriber has its own buffer of at most capacity batches and receives batches
+ * only as it requests them. When a buffer is full the publisher either blocks (BLOCK),
+ * which holds up the thread that drives the computation and so the workers, or writes
+ * further batches to a temporary file (SPILL) that is read back in order as the
+ * subscriber catches up. Subscribers only see batches published after they subscribed.
+ *
+ * Delivery runs on a pool of its own, never on the compute threads; each subscription has
+ * at most one delivery task at a time, so calls to one subscriber never overlap. */
+public class EdgePublisher implements Flow.Publisher<EdgeBatch> {
+    public static final int DEFAULT_CAPACITY = 16;
+    public static final int BATCH_SIZE = 4096;
+
+    /* What publish() does when a subscriber's buffer is full */
+    public static enum Overflow {
+        BLOCK, SPILL
+    }
+
+    private static final ExecutorService DELIVERY = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            NotificationDispatcher.KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+            NotificationDispatcher.threadFactory("edge-delivery"));
+
+    /*instance variables*/
+    private final String[] names;
+    private final int capacity;
+    private final Overflow overflow;
+    private final CopyOnWriteArrayList<EdgeSubscription> subscriptions = new CopyOnWriteArrayList<EdgeSubscription>();
+    //guarded by this
+    private boolean isClosed;
+    private Throwable failure;
+
+    /*constructor*/
+    public EdgePublisher(String[] names) {
+        this(names, DEFAULT_CAPACITY, Overflow.BLOCK);
+    }
+
+    public EdgePublisher(String[] names, int capacity, Overflow overflow) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.names = names;
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    /* Subscribes with the publisher's overflow policy */
+    public void subscribe(Flow.Subscriber<? super EdgeBatch> subscriber) {
+        subscribe(subscriber, overflow);
+    }
+
+    /* Subscribes with the given overflow policy */
+    public void subscribe(Flow.Subscriber<? super EdgeBatch> subscriber, Overflow overflow) {
+        if (subscriber == null) {
+            throw new NullPointerException();
+        }
+        EdgeSubscription subscription = new EdgeSubscription(subscriber, overflow);
+        subscriber.onSubscribe(subscription);
+        Throwable error;
+        synchronized (this) {
+            if (!isClosed) {
+                subscriptions.add(subscription);
+                return;
+            }
+            error = failure;
+        }
+        subscription.finish(error);
+    }
+
+    /* Publishes edges [from, to) of the parallel arrays (0-based ids), copied into batches
+     * of at most BATCH_SIZE edges. May block, see Overflow. */
+    public void publish(int[] first, int[] second, float[] values, int from, int to) throws InterruptedException {
+        for (int start = from; start < to; start += BATCH_SIZE) {
+            int end = Math.min(to, start + BATCH_SIZE);
+            publish(new EdgeBatch(Arrays.copyOfRange(first, start, end), Arrays.copyOfRange(second, start, end),
+                    Arrays.copyOfRange(values, start, end), names));
+        }
+    }
+
+    /* Publishes a marker for a completed priority gene (-1 if unknown) */
+    public void priorityCompleted(int gene) throws InterruptedException {
+        publish(EdgeBatch.priorityCompleted(gene, names));
+    }
+
+    /* Publishes one batch to every current subscriber */
+    public void publish(EdgeBatch batch) throws InterruptedException {
+        synchronized (this) {
+            if (isClosed) {
+                throw new IllegalStateException("Publisher is closed");
+            }
+        }
+        for (EdgeSubscription subscription : subscriptions) {
+            subscription.offer(batch);
+        }
+    }
+
+    /* Completes every subscriber once it has received the buffered batches */
+    public void close() {
+        closeExceptionally(null);
+    }
+
+    /* Fails every subscriber once it has received the buffered batches; null completes */
+    public void closeExceptionally(Throwable error) {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            failure = error;
+        }
+        for (EdgeSubscription subscription : subscriptions) {
+            subscription.finish(error);
+        }
+    }
+
+    /* Determines if close() or closeExceptionally() has been called */
+    public synchronized boolean isClosed() {
+        return isClosed;
+    }
+
+    /* Gene names of the published ids */
+    public String[] names() {
+        return names;
+    }
+
+    /**
+     * Nested class: EdgeSubscription
+     * The buffer, demand and delivery state of one subscriber. Batches wait in memory and,
+     * with SPILL, in a spill file behind them.
+     **/
+    private class EdgeSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super EdgeBatch> subscriber;
+        private final Overflow overflow;
+
+        //guarded by this
+        private final ArrayDeque<EdgeBatch> buffer = new ArrayDeque<EdgeBatch>();
+        private SpillFile spill;
+        private long demand;
+        private boolean isCancelled;
+        private boolean isFinished; //no more batches will be offered
+        private boolean isTerminated; //onComplete or onError has been called
+        private Throwable error;
+        private boolean isDelivering;
+
+        private final Runnable deliver = new Runnable() {
+            public void run() {
+                deliver();
+            }
+        };
+
+        EdgeSubscription(Flow.Subscriber<? super EdgeBatch> subscriber, Overflow overflow) {
+            this.subscriber = subscriber;
+            this.overflow = overflow;
+        }
+
+        public void request(long n) {
+            synchronized (this) {
+                if (isCancelled || isTerminated) {
+                    return;
+                }
+                if (n <= 0) {
+                    //rule 3.9 of the reactive streams specification
+                    error = new IllegalArgumentException("Non-positive request: " + n);
+                    isFinished = true;
+                    discard();
+                } else {
+                    demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                }
+                schedule();
+            }
+        }
+
+        public void cancel() {
+            synchronized (this) {
+                isCancelled = true;
+                discard();
+                notifyAll();
+            }
+            subscriptions.remove(this);
+        }
+
+        /*queues a batch, blocking or spilling while the buffer is full*/
+        void offer(EdgeBatch batch) throws InterruptedException {
+            synchronized (this) {
+                if (overflow == Overflow.BLOCK) {
+                    while (buffer.size() >= capacity && !isCancelled && !isFinished) {
+                        wait();
+                    }
+                }
+                if (isCancelled || isFinished) {
+                    return;
+                }
+                if (buffer.size() < capacity && (spill == null || spill.isEmpty())) {
+                    buffer.addLast(batch);
+                } else {
+                    try {
+                        if (spill == null) {
+                            spill = new SpillFile();
+                        }
+                        spill.write(batch);
+                    } catch (IOException e) {
+                        error = e;
+                        isFinished = true;
+                        discard();
+                    }
+                }
+                schedule();
+            }
+        }
+
+        void finish(Throwable error) {
+            synchronized (this) {
+                if (isFinished) {
+                    return;
+                }
+                isFinished = true;
+                if (this.error == null) {
+                    this.error = error;
+                }
+                schedule();
+            }
+        }
+
+        /*hold the lock*/
+        private void schedule() {
+            if (!isDelivering && !isCancelled && !isTerminated) {
+                isDelivering = true;
+                DELIVERY.execute(deliver);
+            }
+        }
+
+        /*hold the lock*/
+        private void discard() {
+            buffer.clear();
+            if (spill != null) {
+                spill.delete();
+                spill = null;
+            }
+        }
+
+        private void deliver() {
+            while (true) {
+                EdgeBatch batch = null;
+                boolean isEnd = false;
+                Throwable failure = null;
+                synchronized (this) {
+                    if (isCancelled || isTerminated) {
+                        isDelivering = false;
+                        return;
+                    }
+                    if (demand > 0) {
+                        batch = buffer.pollFirst();
+                        if (batch == null && spill != null && !spill.isEmpty()) {
+                            try {
+                                batch = spill.read(names);
+                            } catch (IOException e) {
+                                error = e;
+                                isFinished = true;
+                                discard();
+                            }
+                        }
+                    }
+                    if (batch != null) {
+                        demand--;
+                        //room for a blocked publisher
+                        notifyAll();
+                    } else if (isFinished && buffer.isEmpty() && (spill == null || spill.isEmpty() || error != null)) {
+                        isTerminated = true;
+                        isEnd = true;
+                        failure = error;
+                        discard();
+                    } else {
+                        isDelivering = false;
+                        return;
+                    }
+                }
+                if (isEnd) {
+                    subscriptions.remove(this);
+                    if (failure != null) {
+                        subscriber.onError(failure);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                try {
+                    subscriber.onNext(batch);
+                } catch (RuntimeException e) {
+                    //rule 2.13: a failing subscriber is cancelled
+                    System.out.println(e);
+                    cancel();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Nested class: SpillFile
+     * Batches that did not fit in memory, appended to a temporary file and read back in
+     * the same order. The file is emptied whenever the reader catches up.
+     **/
+    private static class SpillFile {
+        private final File file;
+        private final RandomAccessFile raf;
+        private long readPosition;
+        private long writePosition;
+
+        SpillFile() throws IOException {
+            file = File.createTempFile("edges", ".spill");
+            file.deleteOnExit();
+            raf = new RandomAccessFile(file, "rw");
+        }
+
+        boolean isEmpty() {
+            return readPosition == writePosition;
+        }
+
+        void write(EdgeBatch batch) throws IOException {
+            int n = batch.size();
+            ByteBuffer bytes = ByteBuffer.allocate(12 + 12 * n);
+            bytes.putInt(n);
+            bytes.putInt(batch.priorityGene());
+            bytes.putInt(batch.isPriorityCompleted() ? 1 : 0);
+            for (int i = 0; i < n; i++) {
+                bytes.putInt(batch.first(i));
+            }
+            for (int i = 0; i < n; i++) {
+                bytes.putInt(batch.second(i));
+            }
+            for (int i = 0; i < n; i++) {
+                bytes.putFloat(batch.value(i));
+            }
+            raf.seek(writePosition);
+            raf.write(bytes.array());
+            writePosition += bytes.capacity();
+        }
+
+        EdgeBatch read(String[] names) throws IOException {
+            raf.seek(readPosition);
+            byte[] header = new byte[12];
+            raf.readFully(header);
+            ByteBuffer head = ByteBuffer.wrap(header);
+            int n = head.getInt();
+            int gene = head.getInt();
+            boolean isPriorityCompleted = head.getInt() != 0;
+            byte[] body = new byte[12 * n];
+            raf.readFully(body);
+            ByteBuffer bytes = ByteBuffer.wrap(body);
+            int[] first = new int[n];
+            int[] second = new int[n];
+            float[] values = new float[n];
+            for (int i = 0; i < n; i++) {
+                first[i] = bytes.getInt();
+            }
+            for (int i = 0; i < n; i++) {
+                second[i] = bytes.getInt();
+            }
+            for (int i = 0; i < n; i++) {
+                values[i] = bytes.getFloat();
+            }
+            readPosition += 12 + body.length;
+            if (isEmpty()) {
+                readPosition = 0;
+                writePosition = 0;
+                raf.setLength(0);
+            }
+            return EdgeBatch.restore(first, second, values, names, isPriorityCompleted, gene);
+        }
+
+        void delete() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                //nothing to keep
+            }
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*import libraries*/
+import java.util.Arrays;
+
+/* In-place sorting of edges held as parallel primitive arrays (first, second, values),
+ * without boxing or formatting them. Every edge gets a packed long key, and the keys
+ * are sorted together with the edge indices by a least significant digit radix sort:
+ * one pass per byte of the key, skipping bytes that are the same for all edges. Each
+ * pass counts and scatters fixed chunks of edges in parallel on the Parallel pool. The
+ * sort is stable, so edges with equal keys keep their order. Extra per-edge columns
+ * (such as bootstrap stabilities) can be passed along and are reordered with the edges. */
+public final class EdgeSort {
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int CHUNK = 1 << 16; //edges per chunk of a pass
+
+    private EdgeSort() {
+    }
+
+    /* Sorts edges [from, to) by first and then second gene id (ids must not be negative) */
+    public static void byGenes(int[] first, int[] second, float[] values, int from, int to, float[]... columns) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            keys[i - from] = ((long) first[i] << 32) | second[i];
+        }
+        permute(first, second, values, columns, from, sort(keys));
+    }
+
+    /* Sorts edges [from, to) by decreasing |value|, the strongest correlations first */
+    public static void byStrength(int[] first, int[] second, float[] values, int from, int to, float[]... columns) {
+        long[] keys = new long[to - from];
+        for (int i = from; i < to; i++) {
+            //the bits of non-negative floats order as the floats do
+            keys[i - from] = Integer.MAX_VALUE - Float.floatToIntBits(Math.abs(values[i]));
+        }
+        permute(first, second, values, columns, from, sort(keys));
+    }
+
+    /* Returns the indices of keys in increasing order of key (stable); keys must not be
+     * negative and are used as scratch space */
+    public static int[] sort(long[] keys) {
+        final int n = keys.length;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        long max = 0;
+        for (long key : keys) {
+            max |= key;
+        }
+        int bits = 64 - Long.numberOfLeadingZeros(max);
+        final int chunks = Math.max(1, (n + CHUNK - 1) / CHUNK);
+        final int[][] counts = new int[chunks][RADIX];
+
+        long[] keyBuffer = new long[n];
+        int[] orderBuffer = new int[n];
+        for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+            final long[] inKeys = keys;
+            final int[] inOrder = order;
+            final long[] outKeys = keyBuffer;
+            final int[] outOrder = orderBuffer;
+            final int digitShift = shift;
+
+            Parallel.forRange(0, chunks, 1, new Parallel.Range() {
+                public void run(int from, int to) {
+                    for (int c = from; c < to; c++) {
+                        int[] count = counts[c];
+                        Arrays.fill(count, 0);
+                        for (int i = c * CHUNK, end = Math.min(n, i + CHUNK); i < end; i++) {
+                            count[(int) (inKeys[i] >>> digitShift) & (RADIX - 1)]++;
+                        }
+                    }
+                }
+            });
+
+            //turn the counts into the start of every (digit, chunk) in the output
+            int start = 0;
+            boolean isTrivial = false;
+            for (int d = 0; d < RADIX; d++) {
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][d];
+                    counts[c][d] = start;
+                    start += count;
+                    if (count == n) {
+                        isTrivial = true;
+                    }
+                }
+            }
+            if (isTrivial) {
+                //all keys share this digit
+                continue;
+            }
+
+            Parallel.forRange(0, chunks, 1, new Parallel.Range() {
+                public void run(int from, int to) {
+                    for (int c = from; c < to; c++) {
+                        int[] next = counts[c];
+                        for (int i = c * CHUNK, end = Math.min(n, i + CHUNK); i < end; i++) {
+                            int position = next[(int) (inKeys[i] >>> digitShift) & (RADIX - 1)]++;
+                            outKeys[position] = inKeys[i];
+                            outOrder[position] = inOrder[i];
+                        }
+                    }
+                }
+            });
+            keyBuffer = keys;
+            orderBuffer = order;
+            keys = outKeys;
+            order = outOrder;
+        }
+        return order;
+    }
+
+    /*reorders the edges from from on so that edge from + k is the old edge from + order[k]*/
+    private static void permute(final int[] first, final int[] second, final float[] values, final float[][] columns, final int from, final int[] order) {
+        final int n = order.length;
+        final int[] oldFirst = Arrays.copyOfRange(first, from, from + n);
+        final int[] oldSecond = Arrays.copyOfRange(second, from, from + n);
+        final float[] oldValues = Arrays.copyOfRange(values, from, from + n);
+        final float[][] oldColumns = new float[columns.length][];
+        for (int c = 0; c < columns.length; c++) {
+            oldColumns[c] = Arrays.copyOfRange(columns[c], from, from + n);
+        }
+        Parallel.forRange(0, n, Math.max(CHUNK, Parallel.grain(n)), new Parallel.Range() {
+            public void run(int lo, int hi) {
+                for (int k = lo; k < hi; k++) {
+                    first[from + k] = oldFirst[order[k]];
+                    second[from + k] = oldSecond[order[k]];
+                    values[from + k] = oldValues[order[k]];
+                    for (int c = 0; c < columns.length; c++) {
+                        columns[c][from + k] = oldColumns[c][order[k]];
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,178 @@
+/*import libraries*/
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.*;
+
+/* Aggregated data set held in memory: one row of expression values per gene, one
+ * column per sample. Mirrors loadAggDT() in corrData.R, where the first column is
+ * the gene name and the remaining columns are samples. Missing values (NA, NaN or an
+ * empty field) are stored as NaN. A matrix can also be a view of some of the samples of
+ * another matrix (see samples()), which shares its values instead of copying them.
+ * A matrix loaded from a file knows the SHA-256 of the bytes it was parsed from (see
+ * fingerprint()), so results can be cached by the content that was actually read. */
+public class ExpressionMatrix {
+    /*instance variables*/
+    private final String[] genes;
+    private final String[] samples;
+    private final double[][] values; //values[gene][sample]
+    private final int[] columns; //columns of values in a view, null otherwise
+    private final String fingerprint; //of the file the matrix was loaded from, null otherwise
+
+    /*constructor*/
+    public ExpressionMatrix(String[] genes, String[] samples, double[][] values) {
+        if (genes.length != values.length) {
+            throw new IllegalArgumentException("Number of genes does not match number of rows");
+        }
+        for (double[] row : values) {
+            if (row.length != samples.length) {
+                throw new IllegalArgumentException("Number of samples does not match number of columns");
+            }
+        }
+        this.genes = genes;
+        this.samples = samples;
+        this.values = values;
+        this.columns = null;
+        this.fingerprint = null;
+    }
+
+    private ExpressionMatrix(String[] genes, String[] samples, double[][] values, int[] columns, String fingerprint) {
+        this.genes = genes;
+        this.samples = samples;
+        this.values = values;
+        this.columns = columns;
+        this.fingerprint = fingerprint;
+    }
+
+    /* A view of the named samples, in the given order; the values are not copied */
+    public ExpressionMatrix samples(String[] names) {
+        HashMap<String, Integer> index = new HashMap<String, Integer>();
+        for (int k = 0; k < samples.length; k++) {
+            index.put(samples[k], k);
+        }
+        int[] selected = new int[names.length];
+        for (int k = 0; k < names.length; k++) {
+            Integer column = index.get(names[k]);
+            if (column == null) {
+                throw new IllegalArgumentException("Unknown sample: " + names[k]);
+            }
+            selected[k] = (columns != null) ? columns[column] : column;
+        }
+        return new ExpressionMatrix(genes, names.clone(), values, selected, null);
+    }
+
+    /* Names of the samples that match a regular expression, e.g. "TCGA-.*-01A" */
+    public String[] samplesMatching(String regex) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (String sample : samples) {
+            if (sample.matches(regex)) {
+                names.add(sample);
+            }
+        }
+        return names.toArray(new String[0]);
+    }
+
+    /* Reads an aggregated .csv file. BufferedReader accepts \n, \r\n and the bare \r
+     * line endings used by the profiling data sets. The bytes are hashed as they are read. */
+    public static ExpressionMatrix load(File file) throws IOException {
+        MessageDigest digest = ResultCache.sha256();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new DigestInputStream(new FileInputStream(file), digest)));
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new IOException("Empty data set: " + file);
+            }
+            String[] header = split(line);
+            String[] samples = Arrays.copyOfRange(header, 1, header.length);
+
+            ArrayList<String> genes = new ArrayList<String>();
+            ArrayList<double[]> rows = new ArrayList<double[]>();
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = split(line);
+                if (fields.length != header.length) {
+                    throw new IOException(String.format("Line %d has %d fields, expected %d", lineNumber, fields.length, header.length));
+                }
+                double[] row = new double[samples.length];
+                for (int j = 0; j < samples.length; j++) {
+                    row[j] = parseValue(fields[j + 1], lineNumber);
+                }
+                genes.add(fields[0]);
+                rows.add(row);
+            }
+            return new ExpressionMatrix(genes.toArray(new String[0]), samples, rows.toArray(new double[0][]), null,
+                    ResultCache.hex(digest.digest()));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static double parseValue(String field, int lineNumber) throws IOException {
+        if (field.isEmpty() || field.equals("NA") || field.equalsIgnoreCase("NaN")) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Line %d: '%s' is not a number", lineNumber, field));
+        }
+    }
+
+    /*split a csv line, removing the quotes R adds around names*/
+    private static String[] split(String line) {
+        String[] fields = line.split(",", -1);
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i].trim();
+            if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+                field = field.substring(1, field.length() - 1);
+            }
+            fields[i] = field;
+        }
+        return fields;
+    }
+
+    /*access methods*/
+    public int geneCount() {
+        return genes.length;
+    }
+    public int sampleCount() {
+        return samples.length;
+    }
+    public String[] geneNames() {
+        return genes;
+    }
+    public String[] sampleNames() {
+        return samples;
+    }
+    /*SHA-256 of the content of the file the matrix was loaded from, in hex, as
+     *ResultCache.fingerprint() gives it; null for other matrices and views*/
+    public String fingerprint() {
+        return fingerprint;
+    }
+    /*the values of gene; a view gathers them into a new array*/
+    public double[] row(int gene) {
+        if (columns == null) {
+            return values[gene];
+        }
+        double[] row = new double[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            row[k] = values[gene][columns[k]];
+        }
+        return row;
+    }
+
+    /* Determines if gene has a missing value in any sample */
+    public boolean hasMissing(int gene) {
+        double[] row = values[gene];
+        for (int k = 0; k < samples.length; k++) {
+            if (Double.isNaN(row[(columns != null) ? columns[k] : k])) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,238 @@
+/*import libraries*/
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Benjamini-Hochberg FDR control over all pairs in a single correlation pass, without
+ * storing or sorting the p-values of every test. Each test only increments a counter of
+ * a fine log-scale p-value histogram; the counters are striped so that worker threads
+ * rarely touch the same cache line. Every bin also keeps the largest p-value it has seen
+ * (for tests binned by correlation, the smallest |r|), so the test of the last rank of a
+ * bin is known exactly. At the end the BH cutoff is read off the cumulative histogram, and
+ * only inside the boundary bucket are the retained candidate p-values re-ranked.
+ *
+ * Candidates are the tests that can become edges (|r| >= tau and p <= q). The other tests
+ * of the boundary bucket are ranked after the candidates, which is exact whenever p is a
+ * decreasing function of |r| (a fixed sample count) and conservative otherwise. Of those
+ * other tests only the largest p-value is kept, tested at the bucket's last rank, so a BH
+ * cutoff that would fall strictly between the candidates and that last rank is missed:
+ * the result is then conservative (fewer edges than exact BH), never anti-conservative. */
+public class FdrControl {
+    public static final int BINS_PER_DECADE = 32;
+    public static final int MIN_DECADE = -320;
+
+    //bin 0 holds p < 10^MIN_DECADE (including p == 0), the last bin holds p >= 1
+    private static final int BINS = -MIN_DECADE * BINS_PER_DECADE + 2;
+
+    /*instance variables*/
+    private final double q;
+    private final int stripes;
+    private final AtomicLongArray counts; //counts[stripe * BINS + bin]
+    private final AtomicLongArray largestP; //bits of the largest p given to record(), same layout
+    private final AtomicLongArray smallestR; //bits of the smallest |r| given to recordCorrelation()
+    private final CorrelationMeasure measure; //null without the measure constructor
+    private final int n;
+    private final double[] rEdges; //|r| at each upper bin edge, or null
+
+    /* FDR level q, p-values given directly to record() */
+    public FdrControl(double q) {
+        this(q, null, 0);
+    }
+
+    /* FDR level q for correlations whose p-value is measure.pValue(r, n). Tests can then
+     * be binned from |r| by a binary search instead of evaluating the p-value. */
+    public FdrControl(double q, CorrelationMeasure measure, int n) {
+        if (!(q > 0 && q <= 1)) {
+            throw new IllegalArgumentException("FDR level must be in (0, 1]");
+        }
+        this.q = q;
+        stripes = Parallel.stripes();
+        counts = new AtomicLongArray(stripes * BINS);
+        largestP = new AtomicLongArray(stripes * BINS);
+        smallestR = new AtomicLongArray(stripes * BINS);
+        long infinity = Double.doubleToLongBits(Double.POSITIVE_INFINITY);
+        for (int i = 0; i < smallestR.length(); i++) {
+            smallestR.set(i, infinity);
+        }
+        this.measure = measure;
+        this.n = n;
+        rEdges = (measure != null) ? correlationEdges(measure, n) : null;
+    }
+
+    /*FDR level*/
+    public double q() {
+        return q;
+    }
+
+    /* Upper edge of bin b: bin b holds upperEdge(b - 1) <= p < upperEdge(b) */
+    public static double upperEdge(int b) {
+        if (b >= BINS - 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.pow(10, MIN_DECADE + (double) b / BINS_PER_DECADE);
+    }
+
+    /* Histogram bin of a p-value */
+    public static int bin(double p) {
+        if (!(p < 1)) {
+            return BINS - 1;
+        }
+        if (p < upperEdge(0)) {
+            return 0;
+        }
+        int b = (int) Math.ceil((Math.log10(p) - MIN_DECADE) * BINS_PER_DECADE);
+        b = Math.max(1, Math.min(BINS - 2, b));
+        //correct rounding of log10 at the edges
+        while (b > 1 && p < upperEdge(b - 1)) b--;
+        while (p >= upperEdge(b)) b++;
+        return b;
+    }
+
+    /* Histogram bin of a correlation; needs the measure constructor */
+    public int binOfCorrelation(double r) {
+        double x = Math.abs(r);
+        if (Double.isNaN(x)) {
+            return BINS - 1;
+        }
+        //rEdges decreases with b; find the first b with |r| > rEdges[b]
+        int lo = 0, hi = BINS - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (x > rEdges[mid]) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /*|r| where the p-value crosses each upper bin edge, found by bisection*/
+    private static double[] correlationEdges(CorrelationMeasure measure, int n) {
+        double[] edges = new double[BINS];
+        for (int b = 0; b < BINS - 1; b++) {
+            double target = upperEdge(b);
+            double lo = 0, hi = 1;
+            for (int it = 0; it < 60; it++) {
+                double mid = (lo + hi) / 2;
+                if (measure.pValue(mid, n) < target) {
+                    hi = mid;
+                } else {
+                    lo = mid;
+                }
+            }
+            edges[b] = lo;
+        }
+        edges[BINS - 1] = -1;
+        return edges;
+    }
+
+    /* Counts one test with p-value p; returns its bin */
+    public int record(double p) {
+        int b = bin(p);
+        int i = Parallel.stripe() * BINS + b;
+        counts.incrementAndGet(i);
+        //p >= 0, so its bits order like its value
+        long bits = Double.doubleToLongBits(p);
+        for (long old = largestP.get(i); bits > old && !largestP.compareAndSet(i, old, bits); ) {
+            old = largestP.get(i);
+        }
+        return b;
+    }
+
+    /* Counts one test with correlation r; returns its bin */
+    public int recordCorrelation(double r) {
+        int b = binOfCorrelation(r);
+        int i = Parallel.stripe() * BINS + b;
+        counts.incrementAndGet(i);
+        long bits = Double.doubleToLongBits(Math.abs(r));
+        for (long old = smallestR.get(i); bits < old && !smallestR.compareAndSet(i, old, bits); ) {
+            old = smallestR.get(i);
+        }
+        return b;
+    }
+
+    /*largest p-value recorded in bin b*/
+    private double largest(int b) {
+        double p = 0;
+        double r = Double.POSITIVE_INFINITY;
+        for (int s = 0; s < stripes; s++) {
+            p = Math.max(p, Double.longBitsToDouble(largestP.get(s * BINS + b)));
+            r = Math.min(r, Double.longBitsToDouble(smallestR.get(s * BINS + b)));
+        }
+        return (r < Double.POSITIVE_INFINITY) ? Math.max(p, measure.pValue(r, n)) : p;
+    }
+
+    /* Number of tests recorded so far */
+    public long tests() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /* Largest p-value that is significant under BH at level q, or -1 if none is.
+     * pValues[0..count) and bins[0..count) are the candidates recorded during the pass. */
+    public double cutoff(double[] pValues, int[] bins, int count) {
+        long[] cumulative = new long[BINS];
+        long running = 0;
+        for (int b = 0; b < BINS; b++) {
+            for (int s = 0; s < stripes; s++) {
+                running += counts.get(s * BINS + b);
+            }
+            cumulative[b] = running;
+        }
+        double M = running;
+        if (M == 0) {
+            return -1;
+        }
+
+        //candidates grouped by bin
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final double[] p = pValues;
+        final int[] bin = bins;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                if (bin[a] != bin[b]) return bin[a] < bin[b] ? -1 : 1;
+                return Double.compare(p[a], p[b]);
+            }
+        });
+        int end = count;
+
+        for (int b = BINS - 1; b >= 0; b--) {
+            long before = (b > 0) ? cumulative[b - 1] : 0;
+            if (cumulative[b] == before) {
+                continue;
+            }
+            double lower = (b > 0) ? upperEdge(b - 1) : 0;
+            double bound = cumulative[b] * q / M;
+            //candidates of this bin are order[start..end)
+            int start = end;
+            while (start > 0 && bins[order[start - 1]] == b) {
+                start--;
+            }
+            if (lower > bound) {
+                //no test in this bin can pass, its best rank is cumulative[b]
+                end = start;
+                continue;
+            }
+            double largest = largest(b);
+            if (largest <= bound) {
+                //the largest test of the bin passes at rank cumulative[b]
+                return (end > start) ? Math.max(pValues[order[end - 1]], largest) : largest;
+            }
+            //boundary bucket: ranks for the candidates, the other tests ranked after them
+            for (int k = end - 1; k >= start; k--) {
+                long rank = before + (k - start + 1);
+                if (pValues[order[k]] <= rank * q / M) {
+                    return pValues[order[k]];
+                }
+            }
+            end = start;
+        }
+        return -1;
+    }
+}
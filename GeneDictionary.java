@@ -0,0 +1,268 @@
+/*import libraries*/
+import java.io.*;
+import java.util.*;
+
+/* Immutable dictionary from gene names to compact ids (the row index of the gene in its
+ * data set), built once when a data set is loaded. Lookups ignore case, as equalsIgnoreCase
+ * and match(tolower(...)) in corrData.R do, and accept any CharSequence without allocating:
+ * names are kept in an open-addressing table together with their case-folded hashes.
+ *
+ * Aliases (for example HGNC symbols for probe ids) resolve to the id of their gene; a name
+ * of the data set always wins over an alias that folds to the same key. Prefix search over
+ * names and aliases serves autocompletion. Being immutable, a dictionary can be shared by
+ * any number of threads. */
+public final class GeneDictionary {
+    /*instance variables*/
+    private final String[] names; //names[id]
+    private final String[] keys; //names, then aliases
+    private final int[] keyIds;
+    private final int[] keyHashes;
+    private final int[] slots; //index into keys + 1, 0 if empty
+    private final int mask;
+
+    //keys in case-folded order, for prefix search
+    private final String[] sortedKeys;
+    private final int[] sortedIds;
+
+    /*constructor*/
+    public GeneDictionary(String[] names) {
+        this(names, new String[0], new int[0]);
+    }
+
+    private GeneDictionary(String[] names, String[] aliases, int[] aliasIds) {
+        this.names = names;
+        int capacity = Integer.highestOneBit(Math.max(4, 2 * (names.length + aliases.length)) - 1) << 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+
+        String[] keys = new String[names.length + aliases.length];
+        int[] keyIds = new int[keys.length];
+        int[] keyHashes = new int[keys.length];
+        int count = 0;
+        for (int k = 0; k < keys.length; k++) {
+            String key = (k < names.length) ? names[k] : aliases[k - names.length];
+            int id = (k < names.length) ? k : aliasIds[k - names.length];
+            int hash = hash(key);
+            //the first of several keys that fold to the same name wins
+            if (find(key, hash, keys, keyHashes) >= 0) {
+                continue;
+            }
+            keys[count] = key;
+            keyIds[count] = id;
+            keyHashes[count] = hash;
+            int slot = hash & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = count + 1;
+            count++;
+        }
+        this.keys = Arrays.copyOf(keys, count);
+        this.keyIds = Arrays.copyOf(keyIds, count);
+        this.keyHashes = Arrays.copyOf(keyHashes, count);
+
+        Integer[] order = new Integer[count];
+        final String[] folded = new String[count];
+        for (int k = 0; k < count; k++) {
+            order[k] = k;
+            folded[k] = fold(this.keys[k]);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return folded[a].compareTo(folded[b]);
+            }
+        });
+        sortedKeys = new String[count];
+        sortedIds = new int[count];
+        for (int k = 0; k < count; k++) {
+            sortedKeys[k] = folded[order[k]];
+            sortedIds[k] = this.keyIds[order[k]];
+        }
+    }
+
+    /* A dictionary with the same names and the given aliases (alias -> gene name).
+     * Aliases of unknown genes are ignored. */
+    public GeneDictionary withAliases(Map<String, String> aliases) {
+        String[] aliasNames = new String[aliases.size()];
+        int[] aliasIds = new int[aliases.size()];
+        int count = 0;
+        for (Map.Entry<String, String> alias : aliases.entrySet()) {
+            int id = id(alias.getValue());
+            if (id >= 0) {
+                aliasNames[count] = alias.getKey();
+                aliasIds[count] = id;
+                count++;
+            }
+        }
+        return new GeneDictionary(names, Arrays.copyOf(aliasNames, count), Arrays.copyOf(aliasIds, count));
+    }
+
+    /* Reads an alias table: one "alias,gene" pair per line, optionally quoted; lines that
+     * do not have two fields (such as a header) are skipped */
+    public static Map<String, String> loadAliases(File file) throws IOException {
+        LinkedHashMap<String, String> aliases = new LinkedHashMap<String, String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("[,\t]");
+                if (fields.length < 2) {
+                    continue;
+                }
+                String alias = unquote(fields[0]);
+                String gene = unquote(fields[1]);
+                if (!alias.isEmpty() && !gene.isEmpty()) {
+                    aliases.put(alias, gene);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return aliases;
+    }
+
+    private static String unquote(String field) {
+        field = field.trim();
+        if (field.length() >= 2 && field.charAt(0) == '"' && field.charAt(field.length() - 1) == '"') {
+            field = field.substring(1, field.length() - 1);
+        }
+        return field;
+    }
+
+    /* Id of a gene name or alias ignoring case, or -1 */
+    public int id(CharSequence name) {
+        if (name == null) {
+            return -1;
+        }
+        int k = find(name, hash(name), keys, keyHashes);
+        return (k >= 0) ? keyIds[k] : -1;
+    }
+
+    /*index of the key equal to name ignoring case, or -1; keys may still be filling up*/
+    private int find(CharSequence name, int hash, String[] keys, int[] keyHashes) {
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int k = slots[slot] - 1;
+            if (keyHashes[k] == hash && equalsFolded(keys[k], name)) {
+                return k;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /* Ids of the known names, in order; unknown names are left out */
+    public int[] ids(String[] names) {
+        int[] ids = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            int id = id(name);
+            if (id >= 0) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /* Ids of the genes whose name or an alias starts with prefix (ignoring case), in
+     * alphabetical order of the matching keys, at most limit of them */
+    public int[] prefix(CharSequence prefix, int limit) {
+        int lo = 0, hi = sortedKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareFolded(sortedKeys[mid], prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int[] ids = new int[Math.max(0, Math.min(limit, sortedKeys.length - lo))];
+        int count = 0;
+        for (int k = lo; k < sortedKeys.length && count < ids.length && startsWithFolded(sortedKeys[k], prefix); k++) {
+            int id = sortedIds[k];
+            boolean isNew = true;
+            for (int j = 0; j < count && isNew; j++) {
+                isNew = ids[j] != id;
+            }
+            if (isNew) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /*access methods*/
+    public int size() {
+        return names.length;
+    }
+    public String name(int id) {
+        return names[id];
+    }
+    public String[] names() {
+        return names;
+    }
+
+    /* ------------------------------- case folding ------------------------------- */
+
+    /*folds as String.equalsIgnoreCase does*/
+    private static char fold(char c) {
+        if (c < 128) {
+            return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static String fold(String s) {
+        char[] chars = new char[s.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = fold(s.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    /*hash of the case-folded characters*/
+    private static int hash(CharSequence s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + fold(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean equalsFolded(String key, CharSequence name) {
+        if (key.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (fold(key.charAt(i)) != fold(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*compares an already folded key with the folded name*/
+    private static int compareFolded(String folded, CharSequence name) {
+        int n = Math.min(folded.length(), name.length());
+        for (int i = 0; i < n; i++) {
+            char a = folded.charAt(i);
+            char b = fold(name.charAt(i));
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return folded.length() - name.length();
+    }
+
+    private static boolean startsWithFolded(String folded, CharSequence prefix) {
+        if (folded.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (folded.charAt(i) != fold(prefix.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
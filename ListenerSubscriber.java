@@ -0,0 +1,92 @@
+/*import libraries*/
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+
+/* Drives the Correlate.Listener callbacks from an EdgePublisher. Edges are collected as they
+ * arrive; at every priority marker the listener gets a snapshot of all edges so far, and
+ * once the publisher completes it gets onCompleted() (onFailed() if it failed). The full
+ * edge list is available from edgeList() before onCompleted() is called.
+ *
+ * Runs that publish their edges only once they are final (FDR control and permutation
+ * p-values) offer a snapshot of their candidates before each priority marker instead,
+ * which the listener gets in place of the (empty) edges received so far. */
+public class ListenerSubscriber implements Flow.Subscriber<EdgeBatch> {
+    /*instance variables*/
+    private final Correlate.Listener listener;
+    private final String[] names;
+    private Flow.Subscription subscription;
+
+    //edges so far with the 1-based ids of Correlate.EdgeList
+    private int[] first = new int[1024];
+    private int[] second = new int[1024];
+    private float[] values = new float[1024];
+    private int E;
+    private volatile Correlate.EdgeList edgeList;
+    //candidate snapshots of deferred runs, one per priority marker still to come
+    private final ConcurrentLinkedQueue<Correlate.EdgeList> snapshots = new ConcurrentLinkedQueue<Correlate.EdgeList>();
+
+    /*constructor*/
+    public ListenerSubscriber(String[] names, Correlate.Listener listener) {
+        this.names = names;
+        this.listener = listener;
+        edgeList = new Correlate.EdgeList(new int[0], new int[0], names, new float[0]);
+    }
+
+    /* The newest snapshot; all edges once the publisher has completed */
+    public Correlate.EdgeList edgeList() {
+        return edgeList;
+    }
+
+    /* Gives the listener snapshot at the next priority marker; call on the publishing
+     * thread before publishing the marker */
+    public void offerSnapshot(Correlate.EdgeList snapshot) {
+        snapshots.add(snapshot);
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(EdgePublisher.DEFAULT_CAPACITY);
+    }
+
+    public void onNext(EdgeBatch batch) {
+        int n = batch.size();
+        if (E + n > first.length) {
+            int capacity = Math.max(2 * first.length, E + n);
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        for (int i = 0; i < n; i++) {
+            first[E + i] = batch.first(i) + 1;
+            second[E + i] = batch.second(i) + 1;
+            values[E + i] = batch.value(i);
+        }
+        E += n;
+        if (batch.isPriorityCompleted()) {
+            Correlate.EdgeList offered = snapshots.poll();
+            if (offered != null) {
+                edgeList = offered;
+                listener.onPriorityCompleted(offered);
+            } else {
+                listener.onPriorityCompleted(snapshot());
+            }
+        }
+        subscription.request(1);
+    }
+
+    public void onError(Throwable error) {
+        System.out.println(error);
+        listener.onFailed();
+    }
+
+    public void onComplete() {
+        snapshot();
+        listener.onCompleted();
+    }
+
+    private Correlate.EdgeList snapshot() {
+        edgeList = new Correlate.EdgeList(Arrays.copyOf(first, E), Arrays.copyOf(second, E), names, Arrays.copyOf(values, E));
+        return edgeList;
+    }
+}
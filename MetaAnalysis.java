@@ -0,0 +1,336 @@
+/*import libraries*/
+import java.util.*;
+
+/* Meta-analysis of the co-expression of several cohorts, such as the aggregated data sets
+ * of different studies, pooled into one edge list. The cohorts' genes are aligned by name
+ * through their GeneDictionaries (ignoring case, with any aliases), and the genes found in
+ * at least minCohorts cohorts are pooled; a pair is pooled over the cohorts that have both
+ * of its genes.
+ *
+ * The pooled genes are visited in tiles of the upper triangle, in parallel; each thread
+ * correlates one tile in every cohort, combines it and moves on, so no cohort ever has more
+ * than one tile per thread in memory. The correlations of a pair are combined as a fixed-
+ * effect average of their Fisher z-transforms, weighted by w = 1 / var(n) (n - 3 for
+ * Pearson; see CorrelationMeasure.fisherVariance()):
+ *     z = sum(w atanh(r)) / sum(w),  Z = z sqrt(sum(w)),  pooled r = tanh(z)
+ * and a pair is an edge when |pooled r| >= tau and the two-sided normal p-value of Z is at
+ * most pval. Heterogeneity between the cohorts is reported as Cochran's
+ *     Q = sum(w (atanh(r) - z)^2)
+ * and I^2 = max(0, (Q - (k - 1)) / Q) over the k cohorts of the pair. */
+public class MetaAnalysis {
+    public static final int BLOCK = CorrelationKernel.DEFAULT_BLOCK;
+    private static final double MAX_R = 1 - 1e-12; //keeps atanh finite
+
+    /*instance variables*/
+    private final CorrelationKernel[] cohorts;
+    private final int minCohorts;
+    private final String[] names; //pooled genes
+    private final int[][] ids; //ids[k][g]: gene g in cohort k, -1 if missing
+
+    /* per-thread tiles and column lists */
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>();
+
+    /*constructors*/
+    public MetaAnalysis(ExpressionMatrix[] cohorts, CorrelationMeasure measure) {
+        this(kernels(cohorts, measure), dictionaries(cohorts), Math.min(2, cohorts.length));
+    }
+
+    public MetaAnalysis(CorrelationKernel[] cohorts, GeneDictionary[] dictionaries, int minCohorts) {
+        if (cohorts.length == 0 || cohorts.length != dictionaries.length) {
+            throw new IllegalArgumentException("Every cohort needs a gene dictionary");
+        }
+        if (minCohorts < 1 || minCohorts > cohorts.length) {
+            throw new IllegalArgumentException("minCohorts must be between 1 and " + cohorts.length + ": " + minCohorts);
+        }
+        for (int k = 0; k < cohorts.length; k++) {
+            if (cohorts[k].measure() != cohorts[0].measure()) {
+                throw new IllegalArgumentException("All cohorts must use the same correlation measure");
+            }
+            if (cohorts[k].size() != dictionaries[k].size()) {
+                throw new IllegalArgumentException("The dictionary of cohort " + k + " does not match its genes");
+            }
+        }
+        this.cohorts = cohorts;
+        this.minCohorts = minCohorts;
+
+        //genes in order of first appearance; a gene is new if no earlier cohort knows it
+        ArrayList<String> pooled = new ArrayList<String>();
+        for (int k = 0; k < dictionaries.length; k++) {
+            for (String name : dictionaries[k].names()) {
+                boolean isKnown = false;
+                for (int l = 0; l < k && !isKnown; l++) {
+                    isKnown = dictionaries[l].id(name) >= 0;
+                }
+                if (!isKnown) {
+                    pooled.add(name);
+                }
+            }
+        }
+        ArrayList<String> kept = new ArrayList<String>();
+        for (String name : pooled) {
+            int count = 0;
+            for (GeneDictionary dictionary : dictionaries) {
+                if (dictionary.id(name) >= 0) {
+                    count++;
+                }
+            }
+            if (count >= minCohorts) {
+                kept.add(name);
+            }
+        }
+        names = kept.toArray(new String[kept.size()]);
+        ids = new int[cohorts.length][names.length];
+        for (int k = 0; k < cohorts.length; k++) {
+            for (int g = 0; g < names.length; g++) {
+                ids[k][g] = dictionaries[k].id(names[g]);
+            }
+        }
+    }
+
+    private static CorrelationKernel[] kernels(ExpressionMatrix[] matrices, CorrelationMeasure measure) {
+        CorrelationKernel[] kernels = new CorrelationKernel[matrices.length];
+        for (int k = 0; k < matrices.length; k++) {
+            kernels[k] = new CorrelationKernel(matrices[k], measure);
+        }
+        return kernels;
+    }
+
+    private static GeneDictionary[] dictionaries(ExpressionMatrix[] matrices) {
+        GeneDictionary[] dictionaries = new GeneDictionary[matrices.length];
+        for (int k = 0; k < matrices.length; k++) {
+            dictionaries[k] = new GeneDictionary(matrices[k].geneNames());
+        }
+        return dictionaries;
+    }
+
+    /* Pools every pair of genes; see the class comment. The edges have the pooled r as
+     * their value and the columns "p", "Q", "I2" and "cohorts" (the number of cohorts
+     * pooled). */
+    public Correlate.EdgeList run(final double pval, final double tau) {
+        final int N = names.length;
+        final int nb = (N + BLOCK - 1) / BLOCK;
+        final int[] tileRows = new int[nb * (nb + 1) / 2];
+        final int[] tileCols = new int[tileRows.length];
+        int t = 0;
+        for (int I = 0; I < nb; I++) {
+            for (int J = I; J < nb; J++) {
+                tileRows[t] = I;
+                tileCols[t] = J;
+                t++;
+            }
+        }
+        final Part[] parts = new Part[tileRows.length];
+        Parallel.forRange(0, tileRows.length, 1, new Parallel.Range() {
+            public void run(int from, int to) {
+                Workspace workspace = workspace();
+                for (int k = from; k < to; k++) {
+                    int rowStart = tileRows[k] * BLOCK;
+                    int rowEnd = Math.min(N, rowStart + BLOCK);
+                    int colStart = tileCols[k] * BLOCK;
+                    int colEnd = Math.min(N, colStart + BLOCK);
+                    for (int c = 0; c < cohorts.length; c++) {
+                        correlate(c, rowStart, rowEnd, colStart, colEnd, workspace);
+                    }
+                    parts[k] = combine(rowStart, rowEnd, colStart, colEnd, workspace.tiles, pval, tau);
+                }
+            }
+        });
+
+        int E = 0;
+        for (Part part : parts) {
+            if (part != null) {
+                E += part.E;
+            }
+        }
+        Part all = new Part(E);
+        for (Part part : parts) {
+            if (part != null) {
+                all.addAll(part);
+            }
+        }
+        Correlate.EdgeList edgeList = new Correlate.EdgeList(all.first, all.second, names, all.values);
+        edgeList.addColumn("p", all.p);
+        edgeList.addColumn("Q", all.q);
+        edgeList.addColumn("I2", all.i2);
+        edgeList.addColumn("cohorts", all.cohorts);
+        return edgeList;
+    }
+
+    /*the tile of cohort c, row-major over the pooled genes; NaN where a gene is missing*/
+    private void correlate(int c, int rowStart, int rowEnd, int colStart, int colEnd, Workspace workspace) {
+        CorrelationKernel kernel = cohorts[c];
+        int[] id = ids[c];
+        double[] tile = workspace.tiles[c];
+        int width = colEnd - colStart;
+        Arrays.fill(tile, 0, (rowEnd - rowStart) * width, Double.NaN);
+        int m = 0;
+        for (int j = colStart; j < colEnd; j++) {
+            if (id[j] >= 0) {
+                workspace.cols[m] = id[j];
+                workspace.positions[m] = j - colStart;
+                m++;
+            }
+        }
+        if (m == 0) {
+            return;
+        }
+        for (int i = rowStart; i < rowEnd; i++) {
+            if (id[i] < 0) {
+                continue;
+            }
+            kernel.row(id[i], workspace.cols, 0, m, workspace.row);
+            int base = (i - rowStart) * width;
+            for (int k = 0; k < m; k++) {
+                tile[base + workspace.positions[k]] = workspace.row[k];
+            }
+        }
+    }
+
+    /*the pooled edges i < j of one tile, or null if there are none*/
+    private Part combine(int rowStart, int rowEnd, int colStart, int colEnd, double[][] tiles, double pval, double tau) {
+        CorrelationMeasure measure = cohorts[0].measure();
+        int width = colEnd - colStart;
+        Part part = null;
+        for (int i = rowStart; i < rowEnd; i++) {
+            int base = (i - rowStart) * width;
+            for (int j = Math.max(colStart, i + 1); j < colEnd; j++) {
+                double sumW = 0, sumWZ = 0, sumWZZ = 0;
+                int count = 0;
+                for (int c = 0; c < cohorts.length; c++) {
+                    double r = tiles[c][base + j - colStart];
+                    if (Double.isNaN(r)) {
+                        continue;
+                    }
+                    CorrelationKernel kernel = cohorts[c];
+                    int n = kernel.hasMissing() ? kernel.sharedSamples(ids[c][i], ids[c][j]) : kernel.samples();
+                    if (n < 5) {
+                        continue;
+                    }
+                    double w = 1 / measure.fisherVariance(n);
+                    double z = atanh(r);
+                    sumW += w;
+                    sumWZ += w * z;
+                    sumWZZ += w * z * z;
+                    count++;
+                }
+                if (count < minCohorts) {
+                    continue;
+                }
+                double z = sumWZ / sumW;
+                double r = Math.tanh(z);
+                if (Math.abs(r) < tau) {
+                    continue;
+                }
+                double p = Stats.normalPValue(z * Math.sqrt(sumW));
+                if (p <= pval) {
+                    double q = Math.max(0, sumWZZ - sumWZ * z);
+                    double i2 = (q > 0) ? Math.max(0, (q - (count - 1)) / q) : 0;
+                    if (part == null) {
+                        part = new Part(16);
+                    }
+                    part.add(i + 1, j + 1, (float) r, (float) p, (float) q, (float) i2, count);
+                }
+            }
+        }
+        return part;
+    }
+
+    private static double atanh(double r) {
+        r = Math.max(-MAX_R, Math.min(MAX_R, r));
+        return 0.5 * Math.log((1 + r) / (1 - r));
+    }
+
+    private Workspace workspace() {
+        Workspace workspace = workspaces.get();
+        if (workspace == null) {
+            workspace = new Workspace(cohorts.length);
+            workspaces.set(workspace);
+        }
+        return workspace;
+    }
+
+    /*access methods*/
+    public String[] names() {
+        return names;
+    }
+    public int cohorts() {
+        return cohorts.length;
+    }
+    /*id of pooled gene g in cohort k, -1 if the cohort does not have it*/
+    public int id(int k, int g) {
+        return ids[k][g];
+    }
+
+    /**
+     * Nested class: Workspace
+     * One thread's tile per cohort and the columns of the tile that a cohort has
+     **/
+    private static class Workspace {
+        final double[][] tiles;
+        final int[] cols = new int[BLOCK];
+        final int[] positions = new int[BLOCK];
+        final double[] row = new double[BLOCK];
+
+        Workspace(int cohorts) {
+            tiles = new double[cohorts][BLOCK * BLOCK];
+        }
+    }
+
+    /**
+     * Nested class: Part
+     * Pooled edges as parallel arrays, with the 1-based ids of Correlate.EdgeList
+     **/
+    private static class Part {
+        int[] first;
+        int[] second;
+        float[] values;
+        float[] p;
+        float[] q;
+        float[] i2;
+        float[] cohorts;
+        int E;
+
+        Part(int capacity) {
+            first = new int[capacity];
+            second = new int[capacity];
+            values = new float[capacity];
+            p = new float[capacity];
+            q = new float[capacity];
+            i2 = new float[capacity];
+            cohorts = new float[capacity];
+        }
+
+        void add(int i, int j, float value, float pValue, float qValue, float i2Value, int count) {
+            if (E == first.length) {
+                int capacity = 2 * first.length;
+                first = Arrays.copyOf(first, capacity);
+                second = Arrays.copyOf(second, capacity);
+                values = Arrays.copyOf(values, capacity);
+                p = Arrays.copyOf(p, capacity);
+                q = Arrays.copyOf(q, capacity);
+                i2 = Arrays.copyOf(i2, capacity);
+                cohorts = Arrays.copyOf(cohorts, capacity);
+            }
+            first[E] = i;
+            second[E] = j;
+            values[E] = value;
+            p[E] = pValue;
+            q[E] = qValue;
+            i2[E] = i2Value;
+            cohorts[E] = count;
+            E++;
+        }
+
+        /*appends other; the arrays must have room for it*/
+        void addAll(Part other) {
+            System.arraycopy(other.first, 0, first, E, other.E);
+            System.arraycopy(other.second, 0, second, E, other.E);
+            System.arraycopy(other.values, 0, values, E, other.E);
+            System.arraycopy(other.p, 0, p, E, other.E);
+            System.arraycopy(other.q, 0, q, E, other.E);
+            System.arraycopy(other.i2, 0, i2, E, other.E);
+            System.arraycopy(other.cohorts, 0, cohorts, E, other.E);
+            E += other.E;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*import libraries*/
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/* Network statistics that are updated while edges are being generated, so that degrees,
+ * components and hubs are available without loading the edge list into JUNG.
+ * Batches may be added from several threads at once. Once finish() is called the edges
+ * are frozen into compressed sparse rows (CSR) for clustering coefficients and k-cores. */
+public class NetworkStats {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /*instance variables*/
+    private final int V; //number of genes
+    private final AtomicIntegerArray degree;
+    private final AtomicLongArray weightedDegree; //bits of a double, sum of |r|
+    private final AtomicIntegerArray parent; //union-find forest
+    private final AtomicInteger components;
+    private final AtomicLong edgeCount;
+
+    //raw edges, kept until finish() builds the CSR arrays
+    private int[] src;
+    private int[] dst;
+    private float[] weights;
+    private int E;
+
+    //CSR representation, only valid after finish()
+    private int[] offsets;
+    private int[] adjacency;
+    private float[] adjacencyWeights;
+    private volatile boolean isFinished;
+
+    /*constructor*/
+    public NetworkStats(int V) {
+        this.V = V;
+        degree = new AtomicIntegerArray(V);
+        weightedDegree = new AtomicLongArray(V);
+        parent = new AtomicIntegerArray(V);
+        for (int i = 0; i < V; i++) {
+            parent.set(i, i);
+        }
+        components = new AtomicInteger(V);
+        edgeCount = new AtomicLong();
+        src = new int[INITIAL_CAPACITY];
+        dst = new int[INITIAL_CAPACITY];
+        weights = new float[INITIAL_CAPACITY];
+    }
+
+    /* Adds edges [from, to) of the parallel arrays. Gene ids are offset by base, so
+     * base is 1 for edges produced by R and 0 for edges produced in Java. */
+    public void addBatch(int[] first, int[] second, float[] values, int from, int to, int base) {
+        if (isFinished) {
+            throw new IllegalStateException("Network statistics have already been finished");
+        }
+        if (to <= from) {
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            int u = first[i] - base;
+            int v = second[i] - base;
+            double w = Math.abs(values[i]);
+            degree.incrementAndGet(u);
+            degree.incrementAndGet(v);
+            addWeight(u, w);
+            addWeight(v, w);
+            if (union(u, v)) {
+                components.decrementAndGet();
+            }
+        }
+        edgeCount.addAndGet(to - from);
+        append(first, second, values, from, to, base);
+    }
+
+    /* Adds the edges of edgeList starting at index from (edge lists are 1-based) */
+    public void addEdgeList(Correlate.EdgeList edgeList, int from) {
+        addBatch(edgeList.first(), edgeList.second(), edgeList.values(), from, edgeList.E(), 1);
+    }
+
+    private void addWeight(int v, double w) {
+        while (true) {
+            long old = weightedDegree.get(v);
+            long updated = Double.doubleToRawLongBits(Double.longBitsToDouble(old) + w);
+            if (weightedDegree.compareAndSet(v, old, updated)) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void append(int[] first, int[] second, float[] values, int from, int to, int base) {
+        int n = to - from;
+        if (E + n > src.length) {
+            int capacity = Math.max(src.length * 2, E + n);
+            src = Arrays.copyOf(src, capacity);
+            dst = Arrays.copyOf(dst, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+        for (int i = 0; i < n; i++) {
+            src[E + i] = first[from + i] - base;
+            dst[E + i] = second[from + i] - base;
+        }
+        System.arraycopy(values, from, weights, E, n);
+        E += n;
+    }
+
+    /* ---------------------------- lock-free union-find ---------------------------- */
+
+    /*find with path halving; a failed CAS only means another thread already shortened the path*/
+    private int find(int x) {
+        while (true) {
+            int p = parent.get(x);
+            if (p == x) {
+                return x;
+            }
+            int gp = parent.get(p);
+            if (gp != p) {
+                parent.compareAndSet(x, p, gp);
+            }
+            x = gp;
+        }
+    }
+
+    /*roots are always linked towards the smaller index, which rules out cycles*/
+    private boolean union(int u, int v) {
+        while (true) {
+            int ru = find(u);
+            int rv = find(v);
+            if (ru == rv) {
+                return false;
+            }
+            if (ru < rv) {
+                int tmp = ru;
+                ru = rv;
+                rv = tmp;
+            }
+            if (parent.compareAndSet(ru, ru, rv)) {
+                return true;
+            }
+        }
+    }
+
+    /* ---------------------------- streaming statistics ---------------------------- */
+
+    /*number of genes*/
+    public int V() {
+        return V;
+    }
+
+    /*number of edges seen so far*/
+    public long E() {
+        return edgeCount.get();
+    }
+
+    public int degree(int v) {
+        return degree.get(v);
+    }
+
+    /*sum of |r| over the edges of v*/
+    public double weightedDegree(int v) {
+        return Double.longBitsToDouble(weightedDegree.get(v));
+    }
+
+    /*number of connected components, counting isolated genes*/
+    public int components() {
+        return components.get();
+    }
+
+    /*representative gene of the component containing v*/
+    public int component(int v) {
+        return find(v);
+    }
+
+    /*size of the component containing every gene*/
+    public int[] componentSizes() {
+        int[] sizes = new int[V];
+        for (int v = 0; v < V; v++) {
+            sizes[find(v)]++;
+        }
+        return sizes;
+    }
+
+    /* Returns up to k genes with the highest degree, ties broken by weighted degree */
+    public int[] topHubs(int k) {
+        k = Math.min(k, V);
+        if (k <= 0) {
+            return new int[0];
+        }
+        //min-heap of the best k seen so far
+        int[] heap = new int[k];
+        int size = 0;
+        for (int v = 0; v < V; v++) {
+            if (size < k) {
+                heap[size] = v;
+                siftUp(heap, size);
+                size++;
+            } else if (isHigher(v, heap[0])) {
+                heap[0] = v;
+                siftDown(heap, 0, size);
+            }
+        }
+        int[] hubs = new int[size];
+        for (int i = size - 1; i >= 0; i--) {
+            hubs[i] = heap[0];
+            heap[0] = heap[i];
+            siftDown(heap, 0, i);
+        }
+        return hubs;
+    }
+
+    private boolean isHigher(int a, int b) {
+        int da = degree.get(a);
+        int db = degree.get(b);
+        if (da != db) {
+            return da > db;
+        }
+        return weightedDegree(a) > weightedDegree(b);
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int p = (i - 1) / 2;
+            if (!isHigher(heap[p], heap[i])) {
+                break;
+            }
+            int tmp = heap[p];
+            heap[p] = heap[i];
+            heap[i] = tmp;
+            i = p;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int size) {
+        while (true) {
+            int l = 2 * i + 1;
+            int r = l + 1;
+            int smallest = i;
+            if (l < size && isHigher(heap[smallest], heap[l])) smallest = l;
+            if (r < size && isHigher(heap[smallest], heap[r])) smallest = r;
+            if (smallest == i) {
+                return;
+            }
+            int tmp = heap[smallest];
+            heap[smallest] = heap[i];
+            heap[i] = tmp;
+            i = smallest;
+        }
+    }
+
+    /* ---------------------------- post-run statistics ---------------------------- */
+
+    /* Freezes the edge set into CSR form; further batches are rejected */
+    public synchronized void finish() {
+        if (isFinished) {
+            return;
+        }
+        offsets = new int[V + 1];
+        for (int v = 0; v < V; v++) {
+            offsets[v + 1] = offsets[v] + degree.get(v);
+        }
+        adjacency = new int[offsets[V]];
+        adjacencyWeights = new float[offsets[V]];
+        int[] fill = Arrays.copyOf(offsets, V);
+        for (int i = 0; i < E; i++) {
+            int u = src[i];
+            int v = dst[i];
+            adjacency[fill[u]] = v;
+            adjacencyWeights[fill[u]++] = weights[i];
+            adjacency[fill[v]] = u;
+            adjacencyWeights[fill[v]++] = weights[i];
+        }
+        src = null;
+        dst = null;
+        weights = null;
+
+        //sorted neighbour lists make triangle counting a merge
+        Parallel.forRange(0, V, Parallel.grain(V), new Parallel.Range() {
+            public void run(int from, int to) {
+                for (int v = from; v < to; v++) {
+                    sortNeighbours(offsets[v], offsets[v + 1]);
+                }
+            }
+        });
+        isFinished = true;
+    }
+
+    private void sortNeighbours(int lo, int hi) {
+        //insertion sort keeps adjacency and weights aligned; lists are usually short
+        for (int i = lo + 1; i < hi; i++) {
+            int key = adjacency[i];
+            float w = adjacencyWeights[i];
+            int j = i - 1;
+            while (j >= lo && adjacency[j] > key) {
+                adjacency[j + 1] = adjacency[j];
+                adjacencyWeights[j + 1] = adjacencyWeights[j];
+                j--;
+            }
+            adjacency[j + 1] = key;
+            adjacencyWeights[j + 1] = w;
+        }
+    }
+
+    /*check if finish() has been called*/
+    public boolean isFinished() {
+        return isFinished;
+    }
+
+    /*CSR access methods*/
+    public int[] offsets() {
+        checkFinished();
+        return offsets;
+    }
+    public int[] adjacency() {
+        checkFinished();
+        return adjacency;
+    }
+    public float[] adjacencyWeights() {
+        checkFinished();
+        return adjacencyWeights;
+    }
+
+    private void checkFinished() {
+        if (!isFinished) {
+            throw new IllegalStateException("Network statistics are only available once finish() is called");
+        }
+    }
+
+    /* Local clustering coefficient of every gene, computed in parallel over the CSR rows */
+    public double[] clusteringCoefficients() {
+        checkFinished();
+        final double[] cc = new double[V];
+        Parallel.forRange(0, V, Parallel.grain(V), new Parallel.Range() {
+            public void run(int from, int to) {
+                for (int v = from; v < to; v++) {
+                    int d = offsets[v + 1] - offsets[v];
+                    if (d < 2) {
+                        continue;
+                    }
+                    long links = 0;
+                    for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                        links += intersect(v, adjacency[e]);
+                    }
+                    //every link between two neighbours is counted from both ends
+                    cc[v] = (double) links / ((double) d * (d - 1));
+                }
+            }
+        });
+        return cc;
+    }
+
+    /* Mean of the local clustering coefficients */
+    public double averageClusteringCoefficient() {
+        double[] cc = clusteringCoefficients();
+        double sum = 0;
+        for (double c : cc) {
+            sum += c;
+        }
+        return V == 0 ? 0 : sum / V;
+    }
+
+    private int intersect(int u, int v) {
+        int i = offsets[u], iEnd = offsets[u + 1];
+        int j = offsets[v], jEnd = offsets[v + 1];
+        int count = 0;
+        while (i < iEnd && j < jEnd) {
+            int a = adjacency[i];
+            int b = adjacency[j];
+            if (a == b) {
+                count++;
+                i++;
+                j++;
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /* Core number of every gene. Peels level by level: all genes whose remaining degree is
+     * at most k are removed in parallel, and neighbours that drop to k join the next round. */
+    public int[] coreNumbers() {
+        checkFinished();
+        final int[] core = new int[V];
+        final AtomicIntegerArray remaining = new AtomicIntegerArray(V);
+        final boolean[] removed = new boolean[V];
+        int[] frontier = new int[V];
+        int size = 0;
+        int left = V;
+        int minDegree = Integer.MAX_VALUE;
+        for (int v = 0; v < V; v++) {
+            int d = offsets[v + 1] - offsets[v];
+            remaining.set(v, d);
+            minDegree = Math.min(minDegree, d);
+        }
+
+        int k = (V == 0) ? 0 : minDegree;
+        final int[] next = new int[V];
+        final AtomicInteger nextSize = new AtomicInteger();
+        while (left > 0) {
+            //seed the level with every surviving gene at or below k
+            size = 0;
+            for (int v = 0; v < V; v++) {
+                if (!removed[v] && remaining.get(v) <= k) {
+                    frontier[size++] = v;
+                }
+            }
+            while (size > 0) {
+                for (int i = 0; i < size; i++) {
+                    removed[frontier[i]] = true;
+                    core[frontier[i]] = k;
+                }
+                left -= size;
+                nextSize.set(0);
+                final int[] current = frontier;
+                final int level = k;
+                Parallel.forRange(0, size, Parallel.grain(size), new Parallel.Range() {
+                    public void run(int from, int to) {
+                        for (int i = from; i < to; i++) {
+                            int v = current[i];
+                            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                                int u = adjacency[e];
+                                if (removed[u]) {
+                                    continue;
+                                }
+                                //only the decrement that crosses into this level enqueues u
+                                if (remaining.getAndDecrement(u) == level + 1) {
+                                    next[nextSize.getAndIncrement()] = u;
+                                }
+                            }
+                        }
+                    }
+                });
+                size = nextSize.get();
+                System.arraycopy(next, 0, frontier, 0, size);
+            }
+            k++;
+        }
+        return core;
+    }
+
+    /* Largest core number in the network */
+    public int degeneracy() {
+        int max = 0;
+        for (int c : coreNumbers()) {
+            max = Math.max(max, c);
+        }
+        return max;
+    }
+}
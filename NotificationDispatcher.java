@@ -0,0 +1,109 @@
+/*import libraries*/
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Runs listener code on a small bounded pool of its own, away from the threads that
+ * compute correlations. Notifications go through a Channel, which runs them one at a time
+ * in the order they were posted. Updates (post) are coalesced: an update that has not
+ * started yet is replaced by a newer one posted right after it, so a slow listener only
+ * sees the newest snapshot. Events (send) are never dropped. A channel has at most one
+ * task in the pool at a time, so the work queue never holds more tasks than channels. */
+public class NotificationDispatcher {
+    public static final int KEEP_ALIVE_SECONDS = 2;
+
+    /*instance variables*/
+    private final ThreadPoolExecutor executor;
+
+    /*constructor*/
+    public NotificationDispatcher(String name, int threads) {
+        executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory(name));
+        //idle threads exit so that they do not keep the JVM alive
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /* Names threads name-1, name-2, ... */
+    public static ThreadFactory threadFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                return new Thread(task, name + "-" + count.incrementAndGet());
+            }
+        };
+    }
+
+    /* A new, empty channel */
+    public Channel channel() {
+        return new Channel();
+    }
+
+    /* Stops accepting notifications; pending ones are still delivered */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Nested class: Channel
+     * An ordered stream of notifications for one listener
+     **/
+    public class Channel {
+        //guarded by this
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<Runnable>();
+        private boolean isTailUpdate;
+        private boolean isScheduled;
+
+        private final Runnable drain = new Runnable() {
+            public void run() {
+                drain();
+            }
+        };
+
+        /* Queues an update, replacing the previous update if it is still waiting at the end
+         * of the queue */
+        public synchronized void post(Runnable update) {
+            if (isTailUpdate) {
+                queue.pollLast();
+            }
+            queue.addLast(update);
+            isTailUpdate = true;
+            schedule();
+        }
+
+        /* Queues an event, which is always delivered */
+        public synchronized void send(Runnable event) {
+            queue.addLast(event);
+            isTailUpdate = false;
+            schedule();
+        }
+
+        private void schedule() {
+            if (!isScheduled) {
+                isScheduled = true;
+                executor.execute(drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = queue.pollFirst();
+                    if (task == null) {
+                        isScheduled = false;
+                        return;
+                    }
+                    if (queue.isEmpty()) {
+                        isTailUpdate = false;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    //a failing listener must not stop later notifications
+                    System.out.println(e);
+                }
+            }
+        }
+    }
+}
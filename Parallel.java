@@ -0,0 +1,97 @@
+/*import libraries*/
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/* Static helper that runs index ranges on a shared fork/join pool. All compute
+ * kernels go through this class so that they share one set of worker threads. */
+public final class Parallel {
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ForkJoinPool POOL = new ForkJoinPool(THREADS);
+
+    private Parallel() {
+    }
+
+    /* Body of a parallel loop; called with disjoint [from, to) slices */
+    public static interface Range {
+        public void run(int from, int to);
+    }
+
+    /* Number of compute threads */
+    public static int threads() {
+        return THREADS;
+    }
+
+    /* Determines if the calling thread is one of the compute threads */
+    public static boolean isWorker() {
+        Thread thread = Thread.currentThread();
+        return (thread instanceof ForkJoinWorkerThread) && ((ForkJoinWorkerThread) thread).getPool() == POOL;
+    }
+
+    /* Small integer identifying the calling thread, used to pick a counter stripe.
+     * Two threads may share a stripe, so stripes still have to be updated atomically. */
+    public static int stripe() {
+        Thread thread = Thread.currentThread();
+        if (isWorker()) {
+            return ((ForkJoinWorkerThread) thread).getPoolIndex() % THREADS;
+        }
+        return THREADS;
+    }
+
+    /* Number of distinct values returned by stripe() */
+    public static int stripes() {
+        return THREADS + 1;
+    }
+
+    /* Runs body over [from, to), splitting until slices are at most grain long */
+    public static void forRange(int from, int to, int grain, Range body) {
+        if (to <= from) {
+            return;
+        }
+        grain = Math.max(1, grain);
+        if (to - from <= grain || THREADS == 1) {
+            body.run(from, to);
+            return;
+        }
+        RangeTask task = new RangeTask(from, to, grain, body);
+        if (isWorker()) {
+            task.invoke();
+        } else {
+            POOL.invoke(task);
+        }
+    }
+
+    /* Picks a grain that gives every thread several slices of [0, n) */
+    public static int grain(int n) {
+        return Math.max(1, n / (THREADS * 8));
+    }
+
+    /**
+     * Nested class: RangeTask
+     * Recursively halves a range until it is small enough to run directly
+     **/
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final Range body;
+
+        RangeTask(int from, int to, int grain, Range body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*import libraries*/
+import java.util.*;
+
+/* Permutation p-values for candidate edges, for cohorts too small for the asymptotic
+ * p-values of CorrelationMeasure. The prepared vector of a pair's first gene is shuffled
+ * in place and correlated with the unshuffled second gene; the p-value is the share of
+ * permutations with |r| at least the observed |r|. The observed |r| is recomputed in double
+ * from the same prepared vectors as the permutations, and compared with a relative tolerance,
+ * so that permutations tying it (the identity, or tied Spearman ranks) are always counted.
+ * Candidates are grouped by first gene so that every shuffle is shared by all partners of
+ * that gene.
+ *
+ * Pairs with missing values are shuffled on their own, over their shared samples.
+ *
+ * Permutations run in rounds. After each round a pair stops as soon as a Wilson
+ * confidence interval for its p-value lies entirely above or below the cutoff P. */
+public class PermutationTest {
+    public static final int DEFAULT_MAX_PERMUTATIONS = 10000;
+    public static final int ROUND = 100;
+    //two-sided 99.9% normal quantile used for early stopping
+    private static final double Z = 3.29;
+    //relative tolerance for ties with the observed |r|
+    private static final double TIE = 1e-12;
+
+    /*instance variables*/
+    private final CorrelationKernel kernel;
+    private final double P;
+    private int maxPermutations = DEFAULT_MAX_PERMUTATIONS;
+    private long seed = 0x5DEECE66DL;
+
+    /* per-thread shuffle buffers */
+    private final ThreadLocal<double[]> shuffleBuffer = new ThreadLocal<double[]>();
+
+    /*constructor*/
+    public PermutationTest(CorrelationKernel kernel, double pval) {
+        this.kernel = kernel;
+        this.P = pval;
+    }
+
+    /*upper limit on the permutations of one pair*/
+    public void setMaxPermutations(int maxPermutations) {
+        if (maxPermutations < 1) {
+            throw new IllegalArgumentException("Need at least one permutation");
+        }
+        this.maxPermutations = maxPermutations;
+    }
+
+    /*results are reproducible for a given seed, whatever the number of threads*/
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /* Permutation p-values for edges [0, count) of the parallel arrays (0-based ids) */
+    public double[] pValues(final int[] first, final int[] second, int count) {
+        final double[] p = new double[count];
+
+        //group the candidates by their first gene
+        Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(first[a], first[b]);
+            }
+        });
+        final int[] order = new int[count];
+        int groups = 0;
+        final int[] groupStart = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            order[i] = boxed[i];
+            if (i == 0 || first[order[i]] != first[order[i - 1]]) {
+                groupStart[groups++] = i;
+            }
+        }
+        groupStart[groups] = count;
+
+        Parallel.forRange(0, groups, 1, new Parallel.Range() {
+            public void run(int from, int to) {
+                for (int g = from; g < to; g++) {
+                    testGroup(order, groupStart[g], groupStart[g + 1], first, second, p);
+                }
+            }
+        });
+        return p;
+    }
+
+    /*permutations for the candidates order[start..end), which share their first gene*/
+    private void testGroup(int[] order, int start, int end, int[] first, int[] second, double[] p) {
+        int gene = first[order[start]];
+        int n = kernel.samples();
+        double[] shuffled = shuffleBuffer(n);
+        System.arraycopy(kernel.vector(gene), 0, shuffled, 0, n);
+        SplittableRandom random = new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (gene + 1)));
+
+        int size = end - start;
+        int[] active = new int[size];
+        int[] exceed = new int[size];
+        double[] observed = new double[size];
+        int live = 0;
+        for (int k = 0; k < size; k++) {
+            int edge = order[start + k];
+            if (!kernel.isComplete(gene) || !kernel.isComplete(second[edge])) {
+                p[edge] = testIncompletePair(gene, second[edge], random);
+                continue;
+            }
+            active[live++] = k;
+            observed[k] = Math.abs(kernel.correlate(shuffled, second[edge])) * (1 - TIE);
+        }
+        int done = 0;
+        while (live > 0 && done < maxPermutations) {
+            int round = Math.min(ROUND, maxPermutations - done);
+            for (int it = 0; it < round; it++) {
+                shuffle(shuffled, n, random);
+                for (int a = 0; a < live; a++) {
+                    int k = active[a];
+                    double r = kernel.correlate(shuffled, second[order[start + k]]);
+                    if (Math.abs(r) >= observed[k]) {
+                        exceed[k]++;
+                    }
+                }
+            }
+            done += round;
+            //retire the pairs whose side of P is already clear
+            int kept = 0;
+            for (int a = 0; a < live; a++) {
+                int k = active[a];
+                if (isDecided(exceed[k], done) && done < maxPermutations) {
+                    p[order[start + k]] = (exceed[k] + 1.0) / (done + 1.0);
+                } else {
+                    active[kept++] = k;
+                }
+            }
+            live = kept;
+        }
+        for (int a = 0; a < live; a++) {
+            int k = active[a];
+            p[order[start + k]] = (exceed[k] + 1.0) / (done + 1.0);
+        }
+    }
+
+    /*permutations of one pair over the samples both genes have values for*/
+    private double testIncompletePair(int i, int j, SplittableRandom random) {
+        int n = kernel.samples();
+        double[] x = new double[n];
+        double[] y = new double[n];
+        int m = kernel.pairValues(i, j, x, y);
+        if (m < 3) {
+            return 1;
+        }
+        CorrelationMeasure measure = kernel.measure();
+        double[] a = measure.prepare(Arrays.copyOf(x, m));
+        double[] b = measure.prepare(Arrays.copyOf(y, m));
+        double observed = Math.abs(measure.correlate(a, b)) * (1 - TIE);
+        int exceed = 0;
+        int done = 0;
+        while (done < maxPermutations) {
+            int round = Math.min(ROUND, maxPermutations - done);
+            for (int it = 0; it < round; it++) {
+                shuffle(a, m, random);
+                if (Math.abs(measure.correlate(a, b)) >= observed) {
+                    exceed++;
+                }
+            }
+            done += round;
+            if (isDecided(exceed, done)) {
+                break;
+            }
+        }
+        return (exceed + 1.0) / (done + 1.0);
+    }
+
+    /*Wilson interval of exceed / trials excludes P*/
+    private boolean isDecided(int exceed, int trials) {
+        double z2 = Z * Z;
+        double centre = (exceed + z2 / 2) / (trials + z2);
+        double half = Z * Math.sqrt((double) exceed * (trials - exceed) / trials + z2 / 4) / (trials + z2);
+        return centre - half > P || centre + half < P;
+    }
+
+    /*Fisher-Yates shuffle of x[0..n) in place*/
+    private static void shuffle(double[] x, int n, SplittableRandom random) {
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            double tmp = x[i];
+            x[i] = x[j];
+            x[j] = tmp;
+        }
+    }
+
+    private double[] shuffleBuffer(int n) {
+        double[] buffer = shuffleBuffer.get();
+        if (buffer == null || buffer.length != n) {
+            buffer = new double[n];
+            shuffleBuffer.set(buffer);
+        }
+        return buffer;
+    }
+}
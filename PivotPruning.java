@@ -0,0 +1,141 @@
+/*import libraries*/
+import java.util.*;
+
+/* Exact pruning of pairs that cannot reach tau. For a dot-product measure the prepared
+ * vectors of complete genes are unit vectors whose dot product is r, so the angle
+ * acos(r) is a metric and the triangle inequality bounds the angle between genes x and y
+ * through every pivot gene p:
+ *     |a(x,p) - a(y,p)| <= a(x,y) <= min(a(x,p) + a(y,p), 2 pi - a(x,p) - a(y,p))
+ * (the second upper bound goes through -p). |r(x,y)| >= tau needs a(x,y) <= acos(tau)
+ * or a(x,y) >= pi - acos(tau), so a pair whose bounds lie strictly between the two is
+ * skipped without computing r. A pivot gives tight bounds when x or y is close to it, so
+ * every gene remembers its nearest pivot, and a pair is bounded through the nearest pivots
+ * of its two genes: four angles, computed once, instead of a dot product.
+ *
+ * The bounds are widened by a slack for rounding. A correlation over S samples may be off
+ * by a few S ulps, and near |r| = 1 the slope of acos is unbounded: an error d in r moves
+ * the angle by up to sqrt(2 d). The slack allows three such errors (two pivot angles and
+ * acos(tau)), about 1e-6 radians for a few hundred samples, so near-duplicate genes next
+ * to a pivot are never pruned by rounding.
+ *
+ * Pivots are picked farthest first: each new pivot is the gene least correlated with the
+ * pivots so far, so that most genes lie close to some pivot. Genes with missing values
+ * are correlated over their shared samples, to which the angles do not apply, and are
+ * never pruned. */
+public class PivotPruning {
+    public static final int MAX_PIVOTS = 256;
+    private static final double ULPS_PER_SAMPLE = 4; //rounding error of r, in ulps of 1 per sample
+    private static final double MIN_SLACK = 1e-7; //radians
+
+    /*instance variables*/
+    private final CorrelationKernel kernel;
+    private final double tau;
+    private final int pivots;
+    private final double[] angles; //angles[gene * pivots + p]
+    private final int[] nearest; //the pivot (0..pivots) closest to each gene
+    private final boolean[] isPrunable;
+    private final double slack; //radians, for rounding in r
+    private final double lower; //acos(tau), widened by slack
+    private final double upper; //pi - acos(tau), widened by slack
+
+    /*constructors*/
+    public PivotPruning(CorrelationKernel kernel, double tau) {
+        this(kernel, tau, defaultPivots(kernel.size()));
+    }
+
+    public PivotPruning(final CorrelationKernel kernel, double tau, int maxPivots) {
+        if (!kernel.measure().isDotProduct()) {
+            throw new IllegalArgumentException("Pivot pruning needs a dot-product measure, not " + kernel.measure());
+        }
+        if (!(tau > 0 && tau <= 1)) {
+            throw new IllegalArgumentException("tau must be between 0 and 1: " + tau);
+        }
+        this.kernel = kernel;
+        this.tau = tau;
+        int N = kernel.size();
+        int S = kernel.samples();
+        slack = Math.max(MIN_SLACK, 3 * Math.sqrt(2 * ULPS_PER_SAMPLE * Math.max(1, S) * Math.ulp(1.0)));
+        lower = Math.acos(tau) + slack;
+        upper = Math.PI - Math.acos(tau) - slack;
+
+        isPrunable = new boolean[N];
+        int prunable = 0;
+        for (int i = 0; i < N; i++) {
+            double[] v = kernel.vector(i);
+            isPrunable[i] = kernel.isComplete(i) && CorrelationKernel.dot(v, v, S) > 0;
+            if (isPrunable[i]) {
+                prunable++;
+            }
+        }
+        pivots = Math.max(0, Math.min(maxPivots, prunable));
+        angles = new double[N * pivots];
+
+        //farthest-first: the next pivot has the smallest max |r| to the pivots so far
+        nearest = new int[N];
+        double[] closest = new double[N];
+        double[] row = new double[N];
+        int pivot = -1;
+        for (int i = 0; i < N && pivot < 0; i++) {
+            if (isPrunable[i]) {
+                pivot = i;
+            }
+        }
+        for (int p = 0; p < pivots; p++) {
+            kernel.row(pivot, row);
+            int next = -1;
+            for (int i = 0; i < N; i++) {
+                if (!isPrunable[i]) {
+                    continue;
+                }
+                double r = Math.max(-1, Math.min(1, row[i]));
+                angles[i * pivots + p] = Math.acos(r);
+                if (p == 0 || Math.abs(r) > closest[i]) {
+                    closest[i] = Math.abs(r);
+                    nearest[i] = p;
+                }
+                if (next < 0 || closest[i] < closest[next]) {
+                    next = i;
+                }
+            }
+            pivot = next;
+        }
+    }
+
+    /* About 4 sqrt(N) pivots, at most MAX_PIVOTS: enough that most genes have a close pivot,
+     * for a few percent of the dot products of an exhaustive run */
+    public static int defaultPivots(int N) {
+        return Math.max(16, Math.min(MAX_PIVOTS, (int) (4 * Math.sqrt(N))));
+    }
+
+    /* Determines if the bounds prove |r(i, j)| < tau */
+    public boolean canSkip(int i, int j) {
+        if (!isPrunable[i] || !isPrunable[j]) {
+            return false;
+        }
+        int p = nearest[i];
+        int q = nearest[j];
+        double xp = angles[i * pivots + p];
+        double yp = angles[j * pivots + p];
+        double xq = angles[i * pivots + q];
+        double yq = angles[j * pivots + q];
+        boolean isAbove = Math.abs(xp - yp) > lower || Math.abs(xq - yq) > lower;
+        return isAbove && (isBelow(xp, yp) || isBelow(xq, yq));
+    }
+
+    /*determines if the upper bound on the angle through a pivot (or its negation) proves it
+     * is below pi - acos(tau)*/
+    private boolean isBelow(double x, double y) {
+        return Math.min(x + y, 2 * Math.PI - x - y) < upper;
+    }
+
+    /*access methods*/
+    public CorrelationKernel kernel() {
+        return kernel;
+    }
+    public double tau() {
+        return tau;
+    }
+    public int pivots() {
+        return pivots;
+    }
+}
@@ -0,0 +1,116 @@
+/*import libraries*/
+import org.rosuda.JRI.REXP;
+import org.rosuda.JRI.Rengine;
+
+/* The embedded R session behind the R backend of Correlate. R is only started on first
+ * use: creating the Rengine, loading data.table, WGCNA and rJava and sourcing the scripts
+ * takes seconds, and it needs R and the JRI native library. Java sessions never load this
+ * class, so they run on hosts without R. JRI cannot start a second Rengine in the same JVM,
+ * so the engine is kept once started and sessions only remove their own R objects. */
+public final class RBackend {
+    private static Rengine re;
+    private static boolean isFailed;
+
+    private RBackend() {
+    }
+
+    /* The running R engine, started on the first call; null if R cannot be started */
+    public static synchronized Rengine engine() {
+        if (re == null && !isFailed) {
+            //without this, Rengine's static initializer calls System.exit when libjri is missing;
+            //it must be set before the class is first used
+            if (System.getProperty("jri.ignore.ule") == null) {
+                System.setProperty("jri.ignore.ule", "yes");
+            }
+            try {
+                if (Rengine.jriLoaded) {
+                    re = startR();
+                } else {
+                    System.out.println("R is unavailable: the JRI native library could not be loaded");
+                }
+            } catch (LinkageError e) {
+                //JRI.jar is missing
+                System.out.println("R is unavailable: " + e);
+            }
+            isFailed = (re == null);
+        }
+        return re;
+    }
+
+    /* Determines if R has been started */
+    public static synchronized boolean isStarted() {
+        return re != null;
+    }
+
+    /*start Rengine*/
+    private static Rengine startR() {
+        Rengine re = Rengine.getMainEngine();
+        //check if R Engine exists
+        if (re == null) {
+            // Create R Engine
+            String[] Rargs = {"--vanilla"};
+            re = new Rengine(Rargs, false, null);
+            if (!re.waitForR()) {
+                return null;
+            }
+
+            re.eval("library(data.table)");
+            re.eval("library(WGCNA)");
+            re.eval("library(rJava)");
+
+            re.eval("source('./Backend/R/queue.R')");
+            re.eval("source('./Backend/R/corrData.R')");
+            re.eval("dyn.load('./Backend/src/pvalAndTriFunctions.so')");
+
+            re.eval("gc()");
+        }
+
+        return re;
+    }
+
+    /* Evaluates an R expression; false if R is not running */
+    public static boolean eval(String expression) {
+        Rengine re = engine();
+        if (re == null) {
+            return false;
+        }
+        re.eval(expression);
+        return true;
+    }
+
+    /* Evaluates an R expression that gives a character vector; null if R is not running */
+    public static String[] strings(String expression) {
+        Rengine re = engine();
+        if (re == null) {
+            return null;
+        }
+        REXP value = re.eval(expression);
+        return (value != null) ? value.asStringArray() : null;
+    }
+
+    /*check if R object is NOT null*/
+    public static boolean notNull(String object) {
+        Rengine re = engine();
+        if (re == null)
+            return false;
+        //if not null, re.eval(check).asBool() == FALSE; .isFALSE() == TRUE
+        return re.eval(String.format("is.null(%s)", object)).asBool().isFALSE();
+    }
+
+    /* Removes the given R objects of a finished session */
+    public static void remove(String... objects) {
+        Rengine re;
+        synchronized (RBackend.class) {
+            re = RBackend.re;
+        }
+        if (re == null) {
+            return;
+        }
+        for (String object : objects) {
+            if (object != null) {
+                re.eval(String.format("if (exists('%s')) rm(%s)", object, object));
+            }
+        }
+        re.eval("gc()");
+    }
+}
@@ -0,0 +1,356 @@
+/*import libraries*/
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+
+/* Two-level cache of finished correlation runs, so that rerunning a data set with the same
+ * parameters returns at once. Results are keyed by a SHA-256 of the data set's content
+ * (not its path, so a changed file is never served stale results) and of the run
+ * parameters; see key().
+ *
+ * The first level keeps the most recently used results in memory, up to a number of bytes.
+ * The second level, if a directory is given, keeps one file per result and deletes the
+ * least recently used files once their total size exceeds its limit. A result found on
+ * disk is moved into memory. Files are written to a temporary name and then renamed, so
+ * that a crash never leaves a partial result behind; unreadable files count as misses. */
+public class ResultCache {
+    public static final long DEFAULT_MEMORY_BYTES = 256L << 20;
+    public static final long DEFAULT_DISK_BYTES = 4L << 30;
+    private static final String SUFFIX = ".result";
+    private static final int MAGIC = 0x43524331; //"CRC1"
+    private static final int CHUNK = 1 << 18; //values per buffer when reading or writing
+
+    /*instance variables*/
+    private final long memoryLimit;
+    private final File directory; //null if there is no second level
+    private final long diskLimit;
+    //guarded by this; in access order, the least recently used first
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long memoryBytes;
+
+    /*constructors*/
+    public ResultCache(long memoryLimit) {
+        this(memoryLimit, null, 0);
+    }
+
+    public ResultCache(long memoryLimit, File directory, long diskLimit) {
+        if (memoryLimit < 0 || diskLimit < 0) {
+            throw new IllegalArgumentException("Cache limits must not be negative");
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory " + directory);
+        }
+        this.memoryLimit = memoryLimit;
+        this.directory = directory;
+        this.diskLimit = diskLimit;
+    }
+
+    /* SHA-256 of the content of file, in hex */
+    public static String fingerprint(File file) throws IOException {
+        MessageDigest digest = sha256();
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[1 << 16];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return hex(digest.digest());
+    }
+
+    /* Key of a run: SHA-256 of the data set's fingerprint and of every parameter that can
+     * change the result, in order */
+    public static String key(String fingerprint, Object... parameters) {
+        StringBuilder text = new StringBuilder(fingerprint);
+        for (Object parameter : parameters) {
+            text.append('\n').append(parameter);
+        }
+        try {
+            return hex(sha256().digest(text.toString().getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /* The result stored under key, or null */
+    public synchronized Entry get(String key) {
+        Entry entry = memory.get(key);
+        if (entry != null || directory == null) {
+            return entry;
+        }
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            entry = read(file);
+        } catch (IOException e) {
+            System.out.println(e);
+            file.delete();
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        remember(key, entry);
+        return entry;
+    }
+
+    /* Stores a result under key, replacing any previous one */
+    public synchronized void put(String key, Entry entry) {
+        remember(key, entry);
+        if (directory == null || entry.bytes() > diskLimit) {
+            return;
+        }
+        File file = file(key);
+        File temporary = new File(directory, key + ".tmp");
+        try {
+            write(temporary, entry);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println(e);
+            temporary.delete();
+            return;
+        }
+        evictFiles();
+    }
+
+    /* Forgets every result, in memory and on disk */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        for (File file : files()) {
+            file.delete();
+        }
+    }
+
+    /*adds an entry to the first level and evicts the least recently used ones over the limit*/
+    private void remember(String key, Entry entry) {
+        Entry previous = memory.remove(key);
+        if (previous != null) {
+            memoryBytes -= previous.bytes();
+        }
+        if (entry.bytes() > memoryLimit) {
+            return;
+        }
+        memory.put(key, entry);
+        memoryBytes += entry.bytes();
+        Iterator<Entry> eldest = memory.values().iterator();
+        while (memoryBytes > memoryLimit) {
+            memoryBytes -= eldest.next().bytes();
+            eldest.remove();
+        }
+    }
+
+    /*deletes the least recently used files until the rest fit in the disk limit*/
+    private void evictFiles() {
+        File[] files = files();
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(b.lastModified(), a.lastModified());
+            }
+        });
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+            if (total > diskLimit) {
+                file.delete();
+            }
+        }
+    }
+
+    private File[] files() {
+        if (directory == null) {
+            return new File[0];
+        }
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+        return (files != null) ? files : new File[0];
+    }
+
+    private File file(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    /*file layout: magic, E, triangle length (-1 if none), first, second, values, triangle*/
+    private static void write(File file, Entry entry) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putInt(MAGIC).putInt(entry.E()).putLong((entry.corrVec != null) ? entry.corrVec.length : -1);
+            header.flip();
+            writeFully(channel, header);
+            ByteBuffer buffer = ByteBuffer.allocate(4 * CHUNK);
+            writeInts(channel, buffer, entry.first);
+            writeInts(channel, buffer, entry.second);
+            writeFloats(channel, buffer, entry.values);
+            if (entry.corrVec != null) {
+                writeFloats(channel, buffer, entry.corrVec);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static Entry read(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            readFully(channel, header);
+            header.flip();
+            int magic = header.getInt();
+            int E = header.getInt();
+            long triangle = header.getLong();
+            if (magic != MAGIC || E < 0 || triangle > Integer.MAX_VALUE
+                    || channel.size() != 16 + 12L * E + 4 * Math.max(0, triangle)) {
+                throw new IOException("Corrupt cache file " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(4 * CHUNK);
+            int[] first = readInts(channel, buffer, new int[E]);
+            int[] second = readInts(channel, buffer, new int[E]);
+            float[] values = readFloats(channel, buffer, new float[E]);
+            float[] corrVec = (triangle >= 0) ? readFloats(channel, buffer, new float[(int) triangle]) : null;
+            return new Entry(first, second, values, corrVec);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] array) throws IOException {
+        for (int from = 0; from < array.length; from += CHUNK) {
+            int n = Math.min(CHUNK, array.length - from);
+            buffer.clear();
+            buffer.asIntBuffer().put(array, from, n);
+            buffer.limit(4 * n);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static void writeFloats(FileChannel channel, ByteBuffer buffer, float[] array) throws IOException {
+        for (int from = 0; from < array.length; from += CHUNK) {
+            int n = Math.min(CHUNK, array.length - from);
+            buffer.clear();
+            buffer.asFloatBuffer().put(array, from, n);
+            buffer.limit(4 * n);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static int[] readInts(FileChannel channel, ByteBuffer buffer, int[] array) throws IOException {
+        for (int from = 0; from < array.length; from += CHUNK) {
+            int n = Math.min(CHUNK, array.length - from);
+            buffer.clear();
+            buffer.limit(4 * n);
+            readFully(channel, buffer);
+            buffer.flip();
+            buffer.asIntBuffer().get(array, from, n);
+        }
+        return array;
+    }
+
+    private static float[] readFloats(FileChannel channel, ByteBuffer buffer, float[] array) throws IOException {
+        for (int from = 0; from < array.length; from += CHUNK) {
+            int n = Math.min(CHUNK, array.length - from);
+            buffer.clear();
+            buffer.limit(4 * n);
+            readFully(channel, buffer);
+            buffer.flip();
+            buffer.asFloatBuffer().get(array, from, n);
+        }
+        return array;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /*access methods*/
+    public synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+    public synchronized int memoryEntries() {
+        return memory.size();
+    }
+    public File directory() {
+        return directory;
+    }
+
+    /**
+     * Nested class: Entry
+     * One finished run: its edges with 0-based gene ids, in the order they were found, and
+     * the lower triangle of its correlation matrix if it was kept (otherwise null). Entries
+     * are shared by every hit and must not be modified.
+     **/
+    public static class Entry {
+        private final int[] first;
+        private final int[] second;
+        private final float[] values;
+        private final float[] corrVec;
+
+        public Entry(int[] first, int[] second, float[] values, float[] corrVec) {
+            if (first.length != values.length || second.length != values.length) {
+                throw new IllegalArgumentException("first, second and values must have the same length");
+            }
+            this.first = first;
+            this.second = second;
+            this.values = values;
+            this.corrVec = corrVec;
+        }
+
+        /*approximate size in bytes*/
+        long bytes() {
+            return 64 + 12L * values.length + ((corrVec != null) ? 4L * corrVec.length : 0);
+        }
+
+        /*access methods*/
+        public int E() {
+            return values.length;
+        }
+        public int[] first() {
+            return first;
+        }
+        public int[] second() {
+            return second;
+        }
+        public float[] values() {
+            return values;
+        }
+        public float[] corrVec() {
+            return corrVec;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/*import libraries*/
+import java.util.*;
+
+/* Candidate pairs for high-tau runs, found with sign random projections (SimHash) so that
+ * the engine need not correlate all N(N-1)/2 pairs. For a dot-product measure the prepared
+ * vectors are unit vectors whose dot product is r, and a random hyperplane separates two of
+ * them with probability acos(r)/pi. Every gene gets one signature of bits hyperplane signs
+ * per table; two genes are candidates if their signatures are equal in some table, or
+ * complementary, since negating a vector flips all of its signs (negative r).
+ *
+ * A pair with |r| = tau collides in one table with probability p^bits, p = 1 - acos(tau)/pi,
+ * so tables = log(1 - recall) / log(1 - p^bits) tables find it with probability recall,
+ * and stronger pairs more often. bits is chosen to minimize the projections plus the
+ * expected number of colliding unrelated pairs, about 2 per 2^bits pairs per table.
+ *
+ * Genes with missing values are correlated over their shared samples only, which their
+ * signatures do not reflect; they are compared with every gene. Genes whose prepared
+ * vector is zero (constant genes) never correlate and get no candidates. */
+public class SimHashFilter {
+    public static final double DEFAULT_RECALL = 0.99;
+    private static final int MAX_BITS = 30;
+    private static final int MAX_TABLES = 4096;
+    private static final CorrelationEngine.Observer IGNORE = new CorrelationEngine.Observer() {
+        public void onEdges(int[] first, int[] second, float[] values, int from, int to) {
+        }
+        public void onPriorityCompleted(int gene) {
+        }
+    };
+
+    /*instance variables*/
+    private final CorrelationKernel kernel;
+    private final double tau;
+    private final double recall;
+    private final int bits;
+    private final int tables;
+    private final boolean[] isExhaustive;
+    private final int[] exhaustive; //genes compared with every gene
+    private final int[] start; //neighbours of gene i are neighbours[start[i]..start[i+1]), sorted
+    private final int[] neighbours;
+
+    /*constructors*/
+    public SimHashFilter(CorrelationKernel kernel, double tau, double recall) {
+        this(kernel, tau, recall, 1L);
+    }
+
+    public SimHashFilter(final CorrelationKernel kernel, double tau, double recall, long seed) {
+        if (!kernel.measure().isDotProduct()) {
+            throw new IllegalArgumentException("SimHash candidates need a dot-product measure, not " + kernel.measure());
+        }
+        if (!(tau > 0 && tau < 1)) {
+            throw new IllegalArgumentException("tau must be between 0 and 1: " + tau);
+        }
+        if (!(recall > 0 && recall < 1)) {
+            throw new IllegalArgumentException("Recall must be between 0 and 1: " + recall);
+        }
+        this.kernel = kernel;
+        this.tau = tau;
+        this.recall = recall;
+        final int N = kernel.size();
+        final int S = kernel.samples();
+
+        //pick the cheapest number of bits; costs are in dot products of length S
+        double p = collisionProbability(tau);
+        int bestBits = 1;
+        double bestCost = Double.MAX_VALUE;
+        for (int b = 1; b <= MAX_BITS; b++) {
+            int L = tablesFor(p, b, recall);
+            double cost = (double) N * L * b + 0.5 * N * N * Math.min(1, 2 * L / Math.pow(2, b));
+            if (L <= MAX_TABLES && cost < bestCost) {
+                bestCost = cost;
+                bestBits = b;
+            }
+        }
+        bits = bestBits;
+        tables = Math.min(MAX_TABLES, tablesFor(p, bits, recall));
+
+        //genes that take part in hashing
+        isExhaustive = new boolean[N];
+        boolean[] isHashed = new boolean[N];
+        int exhaustiveCount = 0;
+        for (int i = 0; i < N; i++) {
+            if (!kernel.isComplete(i)) {
+                isExhaustive[i] = true;
+                exhaustiveCount++;
+            } else {
+                double[] v = kernel.vector(i);
+                isHashed[i] = CorrelationKernel.dot(v, v, S) > 0;
+            }
+        }
+        exhaustive = new int[exhaustiveCount];
+        for (int i = 0, k = 0; i < N; i++) {
+            if (isExhaustive[i]) {
+                exhaustive[k++] = i;
+            }
+        }
+
+        Random random = new Random(seed);
+        final double[][] planes = new double[bits][S];
+        final int[] signatures = new int[N];
+        long[] keys = new long[N];
+        //the candidate pairs, one bit per pair of the upper triangle (N^2/16 bytes)
+        final long[] isPair = new long[(int) (((long) N * (N - 1) / 2 + 63) / 64)];
+        for (int t = 0; t < tables; t++) {
+            for (double[] plane : planes) {
+                for (int s = 0; s < S; s++) {
+                    plane[s] = random.nextGaussian();
+                }
+            }
+            Parallel.forRange(0, N, Parallel.grain(N), new Parallel.Range() {
+                public void run(int from, int to) {
+                    DotKernel dotKernel = kernel.dotKernel();
+                    double[] dots = new double[planes.length + 3];
+                    for (int i = from; i < to; i++) {
+                        double[] v = kernel.vector(i);
+                        int k = 0;
+                        for (; k + 4 <= planes.length; k += 4) {
+                            dotKernel.dot4(v, planes[k], planes[k + 1], planes[k + 2], planes[k + 3], S, dots, k);
+                        }
+                        for (; k < planes.length; k++) {
+                            dots[k] = dotKernel.dot(v, planes[k], S);
+                        }
+                        int signature = 0;
+                        for (k = 0; k < planes.length; k++) {
+                            if (dots[k] >= 0) {
+                                signature |= 1 << k;
+                            }
+                        }
+                        signatures[i] = signature;
+                    }
+                }
+            });
+
+            //genes sorted by signature; each bucket pairs with itself and its complement
+            int n = 0;
+            for (int i = 0; i < N; i++) {
+                if (isHashed[i]) {
+                    keys[n++] = ((long) signatures[i] << 32) | i;
+                }
+            }
+            Arrays.sort(keys, 0, n);
+            int mask = (1 << bits) - 1;
+            for (int lo = 0, hi; lo < n; lo = hi) {
+                int signature = (int) (keys[lo] >>> 32);
+                hi = bucketEnd(keys, lo, n, signature);
+                for (int a = lo; a < hi; a++) {
+                    for (int b = a + 1; b < hi; b++) {
+                        addPair(isPair, (int) keys[a], (int) keys[b], N);
+                    }
+                }
+                int complement = ~signature & mask;
+                if (complement > signature) {
+                    int clo = bucketStart(keys, hi, n, complement);
+                    int chi = bucketEnd(keys, clo, n, complement);
+                    for (int a = lo; a < hi; a++) {
+                        for (int b = clo; b < chi; b++) {
+                            addPair(isPair, (int) keys[a], (int) keys[b], N);
+                        }
+                    }
+                }
+            }
+        }
+
+        //both directions of every pair as neighbour lists; visiting the triangle row by row
+        //appends every list in increasing order
+        start = new int[N + 1];
+        for (int u = 0; u + 1 < N; u++) {
+            long base = Stats.triangleIndex(u, u + 1, N) - (u + 1);
+            long end = base + N;
+            for (long index = nextPair(isPair, base + u + 1, end); index < end; index = nextPair(isPair, index + 1, end)) {
+                start[u + 1]++;
+                start[(int) (index - base) + 1]++;
+            }
+        }
+        for (int i = 0; i < N; i++) {
+            start[i + 1] += start[i];
+        }
+        neighbours = new int[start[N]];
+        int[] fill = Arrays.copyOf(start, N);
+        for (int u = 0; u + 1 < N; u++) {
+            long base = Stats.triangleIndex(u, u + 1, N) - (u + 1);
+            long end = base + N;
+            for (long index = nextPair(isPair, base + u + 1, end); index < end; index = nextPair(isPair, index + 1, end)) {
+                int v = (int) (index - base);
+                neighbours[fill[u]++] = v;
+                neighbours[fill[v]++] = u;
+            }
+        }
+    }
+
+    /*first set bit in [from, end), or end*/
+    private static long nextPair(long[] isPair, long from, long end) {
+        if (from >= end) {
+            return end;
+        }
+        int word = (int) (from >>> 6);
+        long bits = isPair[word] & (-1L << from);
+        while (bits == 0) {
+            if ((long) ++word << 6 >= end) {
+                return end;
+            }
+            bits = isPair[word];
+        }
+        return Math.min(end, ((long) word << 6) + Long.numberOfTrailingZeros(bits));
+    }
+
+    private static void addPair(long[] isPair, int u, int v, int N) {
+        long index = Stats.triangleIndex(u, v, N);
+        isPair[(int) (index >>> 6)] |= 1L << index;
+    }
+
+    /* Probability that one hyperplane does not separate two vectors with correlation r */
+    public static double collisionProbability(double r) {
+        return 1 - Math.acos(Math.abs(r)) / Math.PI;
+    }
+
+    /*tables needed so that a pair colliding with probability p per bit is found with probability recall*/
+    private static int tablesFor(double p, int bits, double recall) {
+        double perTable = Math.pow(p, bits);
+        if (perTable >= 1) {
+            return 1;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(Math.log(1 - recall) / Math.log(1 - perTable)));
+    }
+
+    /*first index of [from, n) whose signature is at least signature*/
+    private static int bucketStart(long[] keys, int from, int n, int signature) {
+        long key = (long) signature << 32;
+        int lo = from, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /*first index of [from, n) whose signature is above signature*/
+    private static int bucketEnd(long[] keys, int from, int n, int signature) {
+        return bucketStart(keys, from, n, signature + 1);
+    }
+
+    /* Determines if the engine has to correlate genes i and j */
+    public boolean isCandidate(int i, int j) {
+        if (isExhaustive[i] || isExhaustive[j]) {
+            return true;
+        }
+        return Arrays.binarySearch(neighbours, start[i], start[i + 1], j) >= 0;
+    }
+
+    /* Determines if gene i is compared with every gene */
+    public boolean isExhaustive(int i) {
+        return isExhaustive[i];
+    }
+
+    /*access methods*/
+    public CorrelationKernel kernel() {
+        return kernel;
+    }
+    public double tau() {
+        return tau;
+    }
+    public double recall() {
+        return recall;
+    }
+    public int bits() {
+        return bits;
+    }
+    public int tables() {
+        return tables;
+    }
+    /*number of candidates of gene i found by hashing*/
+    public int degree(int i) {
+        return start[i + 1] - start[i];
+    }
+    /*k-th candidate of gene i, in increasing order*/
+    public int neighbour(int i, int k) {
+        return neighbours[start[i] + k];
+    }
+    /*genes with missing values, in increasing order; callers must not modify it*/
+    public int[] exhaustiveGenes() {
+        return exhaustive;
+    }
+    /*number of distinct pairs found by hashing*/
+    public long candidatePairs() {
+        return neighbours.length / 2;
+    }
+
+    /* Runs the engine with and without this filter at pval and tau and returns the fraction
+     * of the exact edges that the filtered run found (1 if there are none) */
+    public double measureRecall(double pval) {
+        CorrelationEngine exact = new CorrelationEngine(kernel, pval, tau);
+        exact.run(IGNORE);
+        CorrelationEngine filtered = new CorrelationEngine(kernel, pval, tau);
+        filtered.setCandidateFilter(this);
+        filtered.run(IGNORE);
+        if (exact.E() == 0) {
+            return 1;
+        }
+        long[] found = pairKeys(filtered);
+        long[] expected = pairKeys(exact);
+        int hits = 0;
+        for (long key : expected) {
+            if (Arrays.binarySearch(found, key) >= 0) {
+                hits++;
+            }
+        }
+        return (double) hits / expected.length;
+    }
+
+    private static long[] pairKeys(CorrelationEngine engine) {
+        long[] keys = new long[engine.E()];
+        for (int i = 0; i < keys.length; i++) {
+            int u = engine.first()[i];
+            int v = engine.second()[i];
+            keys[i] = ((long) Math.min(u, v) << 32) | Math.max(u, v);
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+}
@@ -144,7 +144,7 @@ public class SingleGraph extends JPanel {
             
             //add edge
             g.addEdge(i, first, second);
-            edgeWeights.add(data.values()[i]);
+            edgeWeights.add(data.getValue(i));
         }
     }
     
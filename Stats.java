@@ -0,0 +1,170 @@
+/*import libraries*/
+import java.util.*;
+
+/* Static numerical helpers shared by the correlation kernels */
+public final class Stats {
+    private Stats() {
+    }
+
+    /* Ranks of x (1-based), ties receive their average rank as in R's rank() */
+    public static double[] rank(double[] x) {
+        int n = x.length;
+        double[] sorted = Arrays.copyOf(x, n);
+        Arrays.sort(sorted);
+        double[] ranks = new double[n];
+        for (int i = 0; i < n; i++) {
+            //x[i] occupies positions [lo, hi) of the sorted copy
+            int lo = lowerBound(sorted, x[i]);
+            int hi = lowerBound(sorted, Math.nextUp(x[i]));
+            ranks[i] = (lo + hi - 1) / 2.0 + 1;
+        }
+        return ranks;
+    }
+
+    /*first position of sorted that is not below value*/
+    private static int lowerBound(double[] sorted, double value) {
+        int lo = 0, hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* Centres x and scales it to unit length in place, so that the correlation of two
+     * standardized vectors is their dot product. Constant vectors become all zeros. */
+    public static double[] standardize(double[] x) {
+        int n = x.length;
+        double mean = 0;
+        for (int i = 0; i < n; i++) {
+            mean += x[i];
+        }
+        mean /= n;
+        double ss = 0;
+        for (int i = 0; i < n; i++) {
+            x[i] -= mean;
+            ss += x[i] * x[i];
+        }
+        double norm = Math.sqrt(ss);
+        for (int i = 0; i < n; i++) {
+            x[i] = (norm > 0) ? x[i] / norm : 0;
+        }
+        return x;
+    }
+
+    /* ----------------------------- p-values ----------------------------- */
+
+    //for tTestPValue
+    private static final double TINY = 1.0e-30;
+    //for betacf
+    private static final int MAXIT = 100;
+    private static final double EPS = 3.0e-7;
+    private static final double FPMIN = 1.0e-30;
+
+    /* Two-sided p-value of correlation r under the t distribution with df degrees of
+     * freedom. Java port of pval() in pvalAndTriFunctions.c, see there for references. */
+    public static double tTestPValue(double r, int df) {
+        //subtract TINY to prevent result from being NaN
+        double x = (r * r * df) / ((1 - r * r) - TINY);
+        if (x > df)
+            return betai(0.5 * df, 0.5, df / (df + x));
+        else
+            return 1.0 - betai(0.5, 0.5 * df, x / (x + df));
+    }
+
+    /* Two-sided p-value of a standard normal statistic z */
+    public static double normalPValue(double z) {
+        return erfc(Math.abs(z) / Math.sqrt(2));
+    }
+
+    /*complementary error function with fractional error below 1.2e-7 (Numerical Recipes erfcc)*/
+    public static double erfc(double x) {
+        double z = Math.abs(x);
+        double t = 1.0 / (1.0 + 0.5 * z);
+        double ans = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+                + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+                + t * (-0.82215223 + t * 0.17087277)))))))));
+        return x >= 0 ? ans : 2.0 - ans;
+    }
+
+    /*Returns the incomplete beta function Ix(a,b).*/
+    static double betai(double a, double b, double x) {
+        double bt;
+        if (x == 0.0 || x == 1.0) bt = 0.0;
+        else
+            //Factors in front of the continued fraction
+            bt = Math.exp(gammln(a + b) - gammln(a) - gammln(b) + a * Math.log(x) + b * Math.log(1.0 - x));
+        if (x < (a + 1.0) / (a + b + 2.0)) //Use continued fraction directly.
+            return bt * betacf(a, b, x) / a;
+        else
+            //Use continued fraction after symmetry transformation
+            return 1.0 - bt * betacf(b, a, 1.0 - x) / b;
+    }
+
+    /*Used by betai: Evaluates continued fraction for incomplete beta function by modified Lentz's method*/
+    private static double betacf(double a, double b, double x) {
+        double qab = a + b;
+        double qap = a + 1.0;
+        double qam = a - 1.0;
+        double c = 1.0;
+        double d = 1.0 - qab * x / qap;
+        if (Math.abs(d) < FPMIN) d = FPMIN;
+        d = 1.0 / d;
+        double h = d;
+        for (int m = 1; m <= MAXIT; m++) {
+            int m2 = 2 * m;
+            double aa = m * (b - m) * x / ((qam + m2) * (a + m2));
+            d = 1.0 + aa * d; //One step (the even one) of the recurrence.
+            if (Math.abs(d) < FPMIN) d = FPMIN;
+            c = 1.0 + aa / c;
+            if (Math.abs(c) < FPMIN) c = FPMIN;
+            d = 1.0 / d;
+            h *= d * c;
+            aa = -(a + m) * (qab + m) * x / ((a + m2) * (qap + m2));
+            d = 1.0 + aa * d; //Next step of the recurrence (the odd one).
+            if (Math.abs(d) < FPMIN) d = FPMIN;
+            c = 1.0 + aa / c;
+            if (Math.abs(c) < FPMIN) c = FPMIN;
+            d = 1.0 / d;
+            double del = d * c;
+            h *= del;
+            if (Math.abs(del - 1.0) < EPS) break; //Are we done?
+        }
+        return h;
+    }
+
+    /*Returns the value ln[gamma(xx)] for xx > 0.*/
+    private static double gammln(double xx) {
+        final double[] cof = {76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double x = xx, y = xx;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double ser = 1.000000000190015;
+        for (int j = 0; j <= 5; j++) ser += cof[j] / ++y;
+        return -tmp + Math.log(2.5066282746310005 * ser / x);
+    }
+
+    /* Median of x; x is not modified */
+    public static double median(double[] x) {
+        double[] sorted = Arrays.copyOf(x, x.length);
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        return (n % 2 == 1) ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+
+    /* Position of the pair (a, b), a != b, in the vector of the strict lower triangle of an
+     * n x n matrix stored by column, the layout of R's dist objects and of getIndex() in
+     * corrData.R (0-based here). */
+    public static long triangleIndex(int a, int b, int n) {
+        if (a > b) {
+            int tmp = a;
+            a = b;
+            b = tmp;
+        }
+        return (long) a * n - ((long) a * (a + 1)) / 2 + (b - a - 1);
+    }
+}
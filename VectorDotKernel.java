@@ -0,0 +1,63 @@
+/*import libraries*/
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/* DotKernel on the JDK Vector API, using the widest vectors of the machine (AVX2 or
+ * AVX-512 on x86). Only loaded reflectively by DotKernel.vector(), so the rest of the
+ * library compiles and runs without the incubator module. Compile and run with
+ *     --add-modules jdk.incubator.vector */
+public class VectorDotKernel extends DotKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public String name() {
+        return "vector";
+    }
+
+    public double dot(double[] a, double[] b, int n) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(n);
+        int k = 0;
+        for (; k < bound; k += SPECIES.length()) {
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, k);
+            acc = x.fma(DoubleVector.fromArray(SPECIES, b, k), acc);
+        }
+        double s = acc.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++) {
+            s += a[k] * b[k];
+        }
+        return s;
+    }
+
+    public void dot4(double[] a, double[] b0, double[] b1, double[] b2, double[] b3, int n, double[] out, int offset) {
+        DoubleVector acc0 = DoubleVector.zero(SPECIES);
+        DoubleVector acc1 = DoubleVector.zero(SPECIES);
+        DoubleVector acc2 = DoubleVector.zero(SPECIES);
+        DoubleVector acc3 = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(n);
+        int k = 0;
+        for (; k < bound; k += SPECIES.length()) {
+            //one load of a feeds four accumulators
+            DoubleVector x = DoubleVector.fromArray(SPECIES, a, k);
+            acc0 = x.fma(DoubleVector.fromArray(SPECIES, b0, k), acc0);
+            acc1 = x.fma(DoubleVector.fromArray(SPECIES, b1, k), acc1);
+            acc2 = x.fma(DoubleVector.fromArray(SPECIES, b2, k), acc2);
+            acc3 = x.fma(DoubleVector.fromArray(SPECIES, b3, k), acc3);
+        }
+        double s0 = acc0.reduceLanes(VectorOperators.ADD);
+        double s1 = acc1.reduceLanes(VectorOperators.ADD);
+        double s2 = acc2.reduceLanes(VectorOperators.ADD);
+        double s3 = acc3.reduceLanes(VectorOperators.ADD);
+        for (; k < n; k++) {
+            double x = a[k];
+            s0 += x * b0[k];
+            s1 += x * b1[k];
+            s2 += x * b2[k];
+            s3 += x * b3[k];
+        }
+        out[offset] = s0;
+        out[offset + 1] = s1;
+        out[offset + 2] = s2;
+        out[offset + 3] = s3;
+    }
+}
@@ -0,0 +1,307 @@
+/*import libraries*/
+import java.util.*;
+
+/* WGCNA-style network construction on top of CorrelationKernel: soft-threshold
+ * adjacency a_ij = |r_ij|^beta, a scale-free fit for picking beta, and the topological
+ * overlap matrix (TOM). Everything is computed block by block so that the N x N
+ * adjacency and TOM matrices are never held in memory at once.
+ *
+ * Reference:
+ * Zhang B, Horvath S. A general framework for weighted gene co-expression network
+ * analysis. Stat Appl Genet Mol Biol 4 (2005). */
+public class Wgcna {
+    /*defaults used by WGCNA's pickSoftThreshold()*/
+    public static final double[] DEFAULT_POWERS = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 12, 14, 16, 18, 20};
+    public static final double DEFAULT_RSQUARED_CUT = 0.85;
+    public static final int DEFAULT_BREAKS = 10;
+
+    /*instance variables*/
+    private final CorrelationKernel kernel;
+    private int block = CorrelationKernel.DEFAULT_BLOCK;
+
+    /* per-thread adjacency panels used by the TOM computation */
+    private final ThreadLocal<double[][]> panel = new ThreadLocal<double[][]>();
+
+    /*constructor*/
+    public Wgcna(CorrelationKernel kernel) {
+        this.kernel = kernel;
+    }
+
+    /*number of genes per block; larger blocks need block x N doubles per thread*/
+    public void setBlock(int block) {
+        if (block < 1) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.block = block;
+    }
+
+    /* Soft-threshold adjacency of a correlation */
+    public static double adjacency(double r, double beta) {
+        return Math.pow(Math.abs(r), beta);
+    }
+
+    /* Connectivity k_i = sum over j != i of a_ij, for beta = powers[p], computed for all
+     * powers in a single pass over the correlation tiles. Returns k[p][gene]. */
+    public double[][] connectivity(final double[] powers) {
+        final int N = kernel.size();
+        final double[][] k = new double[powers.length][N];
+        kernel.forEachTile(block, new CorrelationKernel.TileVisitor() {
+            public void visit(int rowStart, int rowEnd, int colStart, int colEnd, double[] tile) {
+                int width = colEnd - colStart;
+                double[][] rowSums = new double[powers.length][rowEnd - rowStart];
+                double[][] colSums = new double[powers.length][width];
+                for (int i = rowStart; i < rowEnd; i++) {
+                    for (int j = Math.max(colStart, i + 1); j < colEnd; j++) {
+                        double r = Math.abs(tile[(i - rowStart) * width + j - colStart]);
+                        for (int p = 0; p < powers.length; p++) {
+                            double a = Math.pow(r, powers[p]);
+                            rowSums[p][i - rowStart] += a;
+                            colSums[p][j - colStart] += a;
+                        }
+                    }
+                }
+                //tiles overlap on their rows and columns, so merge under a lock
+                synchronized (k) {
+                    for (int p = 0; p < powers.length; p++) {
+                        for (int i = rowStart; i < rowEnd; i++) {
+                            k[p][i] += rowSums[p][i - rowStart];
+                        }
+                        for (int j = colStart; j < colEnd; j++) {
+                            k[p][j] += colSums[p][j - colStart];
+                        }
+                    }
+                }
+            }
+        });
+        return k;
+    }
+
+    /* Connectivity of every gene for a single power */
+    public double[] connectivity(double beta) {
+        return connectivity(new double[] {beta})[0];
+    }
+
+    /* Scale-free topology fit for every candidate power, as in WGCNA's pickSoftThreshold() */
+    public ScaleFreeFit[] pickSoftThreshold(double[] powers) {
+        double[][] k = connectivity(powers);
+        ScaleFreeFit[] fits = new ScaleFreeFit[powers.length];
+        for (int p = 0; p < powers.length; p++) {
+            fits[p] = ScaleFreeFit.fit(powers[p], k[p], DEFAULT_BREAKS);
+        }
+        return fits;
+    }
+
+    /* Lowest power whose signed R^2 reaches rSquaredCut; if none does, the power with the
+     * best fit is returned */
+    public static double pickPower(ScaleFreeFit[] fits, double rSquaredCut) {
+        ScaleFreeFit best = null;
+        for (ScaleFreeFit fit : fits) {
+            if (fit.signedRSquared() >= rSquaredCut) {
+                return fit.power();
+            }
+            if (best == null || fit.signedRSquared() > best.signedRSquared()) {
+                best = fit;
+            }
+        }
+        if (best == null) {
+            throw new IllegalArgumentException("No candidate powers");
+        }
+        return best.power();
+    }
+
+    /* Streams the topological overlap matrix for power beta. Every tile of the upper triangle
+     * (including diagonal tiles) is passed to visitor once, where
+     *     TOM_ij = (l_ij + a_ij) / (min(k_i, k_j) + 1 - a_ij),   l_ij = sum_u a_iu a_uj
+     * and TOM_ii = 1. Only two block x N adjacency panels per thread are resident. The tiles
+     * of a block row are computed concurrently, so visitor is called from several threads at
+     * once and must be thread-safe; tiles arrive in no particular order within a block row,
+     * and the tile array is reused after visit returns. */
+    public void tom(final double beta, final CorrelationKernel.TileVisitor visitor) {
+        final int N = kernel.size();
+        final double[] k = connectivity(beta);
+        final int nb = (N + block - 1) / block;
+        final double[][] rowPanel = new double[block][N];
+
+        for (int I = 0; I < nb; I++) {
+            final int rowStart = I * block;
+            final int rowEnd = Math.min(N, rowStart + block);
+            fillPanel(rowPanel, rowStart, rowEnd, beta);
+
+            Parallel.forRange(I, nb, 1, new Parallel.Range() {
+                public void run(int from, int to) {
+                    double[][] colPanel = panel(N);
+                    DotKernel dotKernel = kernel.dotKernel();
+                    double[] tile = new double[block * block];
+                    for (int J = from; J < to; J++) {
+                        int colStart = J * block;
+                        int colEnd = Math.min(N, colStart + block);
+                        int width = colEnd - colStart;
+                        fillPanel(colPanel, colStart, colEnd, beta);
+                        for (int i = rowStart; i < rowEnd; i++) {
+                            double[] ai = rowPanel[i - rowStart];
+                            for (int j = colStart; j < colEnd; j++) {
+                                int t = (i - rowStart) * width + j - colStart;
+                                if (i == j) {
+                                    tile[t] = 1;
+                                    continue;
+                                }
+                                double l = dotKernel.dot(ai, colPanel[j - colStart], N);
+                                double a = ai[j];
+                                tile[t] = (l + a) / (Math.min(k[i], k[j]) + 1 - a);
+                            }
+                        }
+                        visitor.visit(rowStart, rowEnd, colStart, colEnd, tile);
+                    }
+                }
+            });
+        }
+    }
+
+    /* Dissimilarity 1 - TOM as the lower triangle of the N x N matrix stored by column,
+     * which is the layout of an R dist object and can be handed directly to hierarchical
+     * clustering (e.g. hclust(as.dist(...))). Needs N(N-1)/2 floats. */
+    public float[] dissimilarity(double beta) {
+        final int N = kernel.size();
+        final float[] dist = new float[(int) ((long) N * (N - 1) / 2)];
+        tom(beta, new CorrelationKernel.TileVisitor() {
+            public void visit(int rowStart, int rowEnd, int colStart, int colEnd, double[] tile) {
+                int width = colEnd - colStart;
+                for (int i = rowStart; i < rowEnd; i++) {
+                    for (int j = Math.max(colStart, i + 1); j < colEnd; j++) {
+                        dist[(int) Stats.triangleIndex(i, j, N)] = (float) (1 - tile[(i - rowStart) * width + j - colStart]);
+                    }
+                }
+            }
+        });
+        return dist;
+    }
+
+    /*adjacency rows [from, to) into panel, with a zero diagonal*/
+    private void fillPanel(double[][] panel, int from, int to, double beta) {
+        for (int i = from; i < to; i++) {
+            double[] row = panel[i - from];
+            kernel.row(i, row);
+            for (int j = 0; j < row.length; j++) {
+                row[j] = adjacency(row[j], beta);
+            }
+            row[i] = 0;
+        }
+    }
+
+    private double[][] panel(int N) {
+        double[][] p = panel.get();
+        if (p == null || p.length < block || p[0].length != N) {
+            p = new double[block][N];
+            panel.set(p);
+        }
+        return p;
+    }
+
+    /**
+     * Nested class: ScaleFreeFit
+     * Fit of log10(p(k)) ~ log10(k) for the connectivity distribution at one power
+     **/
+    public static class ScaleFreeFit {
+        /*instance variables*/
+        private final double power;
+        private final double slope;
+        private final double rSquared;
+        private final double meanK;
+        private final double medianK;
+        private final double maxK;
+
+        /*constructor*/
+        public ScaleFreeFit(double power, double slope, double rSquared, double meanK, double medianK, double maxK) {
+            this.power = power;
+            this.slope = slope;
+            this.rSquared = rSquared;
+            this.meanK = meanK;
+            this.medianK = medianK;
+            this.maxK = maxK;
+        }
+
+        /* Bins k into equal-width breaks as WGCNA's scaleFreeFitIndex() does and fits a
+         * line to the log frequency of each bin against the log of its mean connectivity.
+         * As there, empty bins (and bins whose mean is 0) are placed at the bin midpoint,
+         * and every frequency is offset by 1e-9, so an empty bin counts as log10(1e-9). */
+        public static ScaleFreeFit fit(double power, double[] k, int breaks) {
+            int N = k.length;
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum = 0;
+            for (double v : k) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                sum += v;
+            }
+            double median = Stats.median(k);
+
+            double[] binSum = new double[breaks];
+            int[] binCount = new int[breaks];
+            double width = (max - min) / breaks;
+            for (double v : k) {
+                int b = (width > 0) ? (int) ((v - min) / width) : 0;
+                b = Math.min(breaks - 1, b);
+                binSum[b] += v;
+                binCount[b]++;
+            }
+
+            //least squares over all bins
+            double sx = 0, sy = 0, sxx = 0, sxy = 0, syy = 0;
+            int m = 0;
+            for (int b = 0; b < breaks; b++) {
+                double dk = (binCount[b] > 0) ? binSum[b] / binCount[b] : 0;
+                if (dk == 0) {
+                    dk = min + (b + 0.5) * width;
+                }
+                double x = Math.log10(dk);
+                double y = Math.log10((double) binCount[b] / N + 1e-9);
+                sx += x;
+                sy += y;
+                sxx += x * x;
+                sxy += x * y;
+                syy += y * y;
+                m++;
+            }
+            double slope = Double.NaN, rSquared = Double.NaN;
+            double vx = sxx - sx * sx / m;
+            double vy = syy - sy * sy / m;
+            if (m > 1 && vx > 0) {
+                double cov = sxy - sx * sy / m;
+                slope = cov / vx;
+                rSquared = (vy > 0) ? (cov * cov) / (vx * vy) : 0;
+            }
+            return new ScaleFreeFit(power, slope, rSquared, sum / N, median, max);
+        }
+
+        /*access methods*/
+        public double power() {
+            return power;
+        }
+        public double slope() {
+            return slope;
+        }
+        public double rSquared() {
+            return rSquared;
+        }
+        /*R^2 signed by -sign(slope), as reported by WGCNA*/
+        public double signedRSquared() {
+            if (Double.isNaN(rSquared)) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            return -Math.signum(slope) * rSquared;
+        }
+        public double meanK() {
+            return meanK;
+        }
+        public double medianK() {
+            return medianK;
+        }
+        public double maxK() {
+            return maxK;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-6.1f%-10.3f%-10.3f%-10.2f%-10.2f%-10.2f", power, signedRSquared(), slope, meanK, medianK, maxK);
+        }
+    }
+}